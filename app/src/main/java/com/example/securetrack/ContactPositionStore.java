@@ -0,0 +1,169 @@
+package com.example.securetrack;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Last known position of every trusted contact, including those without a marker.
+ * Positions are held in parallel primitive arrays indexed through a userId map, so
+ * off-screen contacts cost a few dozen bytes each instead of a Marker and a live listener.
+ * Removed slots are compacted by moving the last entry into the hole. Main thread only.
+ */
+public class ContactPositionStore {
+
+    public interface Visitor {
+        void visit(int index);
+    }
+
+    private final Map<String, Integer> indexById = new HashMap<>();
+    private String[] ids = new String[32];
+    private String[] names = new String[32];
+    private double[] latitudes = new double[32];
+    private double[] longitudes = new double[32];
+    // Epoch millis, or -1 if the contact was never seen
+    private long[] lastSeen = new long[32];
+    private String[] avatarUrls = new String[32];
+    private long[] avatarVersions = new long[32];
+    private int size = 0;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(String userId) {
+        return indexById.containsKey(userId);
+    }
+
+    /**
+     * @return Index of the contact, or -1 if unknown
+     */
+    public int indexOf(String userId) {
+        Integer index = indexById.get(userId);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Adds or updates a contact.
+     *
+     * @return true if the position changed or the contact is new
+     */
+    public boolean put(String userId, String name, double latitude, double longitude, long lastSeenMillis) {
+        Integer index = indexById.get(userId);
+        if (index == null) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                names = Arrays.copyOf(names, capacity);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+                lastSeen = Arrays.copyOf(lastSeen, capacity);
+                avatarUrls = Arrays.copyOf(avatarUrls, capacity);
+                avatarVersions = Arrays.copyOf(avatarVersions, capacity);
+            }
+            index = size++;
+            ids[index] = userId;
+            avatarUrls[index] = null;
+            avatarVersions[index] = -1;
+            indexById.put(userId, index);
+        } else if (latitudes[index] == latitude && longitudes[index] == longitude) {
+            names[index] = name;
+            lastSeen[index] = lastSeenMillis;
+            return false;
+        }
+        names[index] = name;
+        latitudes[index] = latitude;
+        longitudes[index] = longitude;
+        lastSeen[index] = lastSeenMillis;
+        return true;
+    }
+
+    public void remove(String userId) {
+        Integer index = indexById.remove(userId);
+        if (index == null) {
+            return;
+        }
+        int last = --size;
+        if (index != last) {
+            ids[index] = ids[last];
+            names[index] = names[last];
+            latitudes[index] = latitudes[last];
+            longitudes[index] = longitudes[last];
+            lastSeen[index] = lastSeen[last];
+            avatarUrls[index] = avatarUrls[last];
+            avatarVersions[index] = avatarVersions[last];
+            indexById.put(ids[index], index);
+        }
+        ids[last] = null;
+        names[last] = null;
+        avatarUrls[last] = null;
+    }
+
+    /**
+     * Records the avatar of a contact already in the store.
+     */
+    public void setAvatar(String userId, String avatarUrl, long avatarVersion) {
+        Integer index = indexById.get(userId);
+        if (index != null) {
+            avatarUrls[index] = avatarUrl;
+            avatarVersions[index] = avatarVersion;
+        }
+    }
+
+    /**
+     * Visits every contact inside the rectangle. Handles rectangles that cross the antimeridian
+     * ({@code west > east}). Indices are only valid until the store is next modified.
+     */
+    public void forEachInBounds(double south, double west, double north, double east, Visitor visitor) {
+        boolean wraps = west > east;
+        for (int i = 0; i < size; i++) {
+            double latitude = latitudes[i];
+            if (latitude < south || latitude > north) {
+                continue;
+            }
+            double longitude = longitudes[i];
+            boolean inside = wraps
+                    ? longitude >= west || longitude <= east
+                    : longitude >= west && longitude <= east;
+            if (inside) {
+                visitor.visit(i);
+            }
+        }
+    }
+
+    public String getId(int index) {
+        return ids[index];
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    public long getLastSeen(int index) {
+        return lastSeen[index];
+    }
+
+    public String getAvatarUrl(int index) {
+        return avatarUrls[index];
+    }
+
+    public long getAvatarVersion(int index) {
+        return avatarVersions[index];
+    }
+
+    public void clear() {
+        Arrays.fill(ids, 0, size, null);
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(avatarUrls, 0, size, null);
+        indexById.clear();
+        size = 0;
+    }
+}
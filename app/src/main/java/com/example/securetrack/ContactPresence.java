@@ -0,0 +1,90 @@
+package com.example.securetrack;
+
+import androidx.annotation.Nullable;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.GeoPoint;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * The presence fields the map shows for one user, read either from the user's own document
+ * or from their entry in a shard of a viewer's circles/{viewerId}. Both use the same field
+ * names. Missing numbers are -1.
+ */
+public class ContactPresence {
+
+    public final String userId;
+    public final String name;
+    public final double latitude;
+    public final double longitude;
+    public final long lastSeen;
+    public final double speed;
+    public final double bearing;
+    public final long fixTime;
+    public final String avatarUrl;
+    public final long avatarVersion;
+
+    private ContactPresence(String userId, String name, double latitude, double longitude,
+                            long lastSeen, double speed, double bearing, long fixTime,
+                            String avatarUrl, long avatarVersion) {
+        this.userId = userId;
+        this.name = name;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.lastSeen = lastSeen;
+        this.speed = speed;
+        this.bearing = bearing;
+        this.fixTime = fixTime;
+        this.avatarUrl = avatarUrl;
+        this.avatarVersion = avatarVersion;
+    }
+
+    /**
+     * @return The presence, or null if the user has no name or location yet
+     */
+    public static @Nullable ContactPresence from(DocumentSnapshot document) {
+        Map<String, Object> data = document.getData();
+        return data != null ? from(document.getId(), data) : null;
+    }
+
+    /**
+     * @return The presence, or null if the user has no name or location yet
+     */
+    public static @Nullable ContactPresence from(String userId, Map<String, Object> fields) {
+        Object location = fields.get("lastLocation");
+        Object name = fields.get("name");
+        if (!(location instanceof GeoPoint) || !(name instanceof String)) {
+            return null;
+        }
+        GeoPoint point = (GeoPoint) location;
+        Object avatarUrl = fields.get("avatarUrl");
+        return new ContactPresence(userId, (String) name, point.getLatitude(), point.getLongitude(),
+                millis(fields.get("lastSeen")),
+                number(fields.get("lastSpeed")),
+                number(fields.get("lastBearing")),
+                wholeNumber(fields.get("lastFixTime")),
+                avatarUrl instanceof String ? (String) avatarUrl : null,
+                wholeNumber(fields.get("avatarVersion")));
+    }
+
+    private static double number(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : -1;
+    }
+
+    private static long wholeNumber(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : -1;
+    }
+
+    private static long millis(Object value) {
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toDate().getTime();
+        }
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        return -1;
+    }
+}
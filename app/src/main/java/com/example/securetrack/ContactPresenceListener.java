@@ -0,0 +1,201 @@
+package com.example.securetrack;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.functions.FirebaseFunctions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Live presence of the current user and their trusted contacts.
+ * The current user's own document is listened to directly. Contacts come from the shard
+ * documents under circles/{uid}/shards, which the fanOutPresence function keeps filled with
+ * every contact's presence, so a circle of any size costs one query listener and one read
+ * per changed shard. Only members whose entry changed are delivered. A circle that does not
+ * exist yet, was never completed, or predates the sharded layout (CIRCLE_VERSION) is built
+ * once through the rebuildCircle callable. Listeners are attached in start() and removed in
+ * stop(), so the owner can pause them while it is not visible.
+ */
+public class ContactPresenceListener {
+    private static final String TAG = "ContactPresence";
+    // Circle layout this client reads; must match CIRCLE_VERSION in the functions
+    private static final long CIRCLE_VERSION = 2;
+
+    public interface Callback {
+        void onCurrentUserChanged(DocumentSnapshot document);
+
+        /**
+         * Contacts whose presence was added or changed.
+         */
+        void onContactsChanged(List<ContactPresence> contacts);
+
+        /**
+         * The full set of trusted contact IDs changed; users not in it should be dropped.
+         * Called before the presence of the new members is delivered.
+         */
+        void onContactSetChanged(Set<String> contactIds);
+
+        void onError(Exception e);
+    }
+
+    private final FirebaseFirestore db;
+    private final String currentUserId;
+    private final Callback callback;
+
+    private ListenerRegistration currentUserRegistration;
+    private ListenerRegistration circleRegistration;
+    private ListenerRegistration shardsRegistration;
+    // Last delivered entry per member, to skip members whose entry did not change
+    private Map<String, Object> members = new HashMap<>();
+    private boolean contactsLoaded = false;
+    private boolean rebuildRequested = false;
+
+    public ContactPresenceListener(FirebaseFirestore db, String currentUserId, Callback callback) {
+        this.db = db;
+        this.currentUserId = currentUserId;
+        this.callback = callback;
+    }
+
+    public void start() {
+        stop();
+
+        currentUserRegistration = db.collection("users").document(currentUserId)
+                .addSnapshotListener(new EventListener<DocumentSnapshot>() {
+                    @Override
+                    public void onEvent(@Nullable DocumentSnapshot document, @Nullable FirebaseFirestoreException e) {
+                        if (e != null) {
+                            callback.onError(e);
+                            return;
+                        }
+                        if (document != null && document.exists()) {
+                            callback.onCurrentUserChanged(document);
+                        }
+                    }
+                });
+
+        circleRegistration = db.collection("circles").document(currentUserId)
+                .addSnapshotListener(new EventListener<DocumentSnapshot>() {
+                    @Override
+                    public void onEvent(@Nullable DocumentSnapshot document, @Nullable FirebaseFirestoreException e) {
+                        if (e != null) {
+                            callback.onError(e);
+                            return;
+                        }
+                        // Shards started by the fan-out before the circle was ever built may
+                        // be partial, and older circles keep their members in the wrong place
+                        if (document != null && !isCurrentCircle(document)) {
+                            requestRebuild();
+                        }
+                    }
+                });
+
+        shardsRegistration = db.collection("circles").document(currentUserId).collection("shards")
+                .addSnapshotListener(new EventListener<QuerySnapshot>() {
+                    @Override
+                    public void onEvent(@Nullable QuerySnapshot shards, @Nullable FirebaseFirestoreException e) {
+                        if (e != null) {
+                            callback.onError(e);
+                            return;
+                        }
+                        if (shards != null) {
+                            onShards(shards);
+                        }
+                    }
+                });
+    }
+
+    public void stop() {
+        if (currentUserRegistration != null) {
+            currentUserRegistration.remove();
+            currentUserRegistration = null;
+        }
+        if (circleRegistration != null) {
+            circleRegistration.remove();
+            circleRegistration = null;
+        }
+        if (shardsRegistration != null) {
+            shardsRegistration.remove();
+            shardsRegistration = null;
+        }
+        members = new HashMap<>();
+        contactsLoaded = false;
+    }
+
+    private static boolean isCurrentCircle(DocumentSnapshot document) {
+        Long version = document.getLong("version");
+        return Boolean.TRUE.equals(document.getBoolean("complete"))
+                && version != null && version >= CIRCLE_VERSION;
+    }
+
+    private void onShards(QuerySnapshot shards) {
+        // Nothing is built yet; rebuildCircle always writes every shard
+        if (shards.isEmpty()) {
+            return;
+        }
+        Map<Object, Object> next = new HashMap<>();
+        for (DocumentSnapshot shard : shards.getDocuments()) {
+            Object field = shard.get("members");
+            if (field instanceof Map) {
+                next.putAll((Map<?, ?>) field);
+            }
+        }
+
+        Set<String> ids = new LinkedHashSet<>();
+        for (Object id : next.keySet()) {
+            ids.add((String) id);
+        }
+        if (!contactsLoaded || !ids.equals(members.keySet())) {
+            contactsLoaded = true;
+            callback.onContactSetChanged(ids);
+        }
+
+        Map<String, Object> delivered = new HashMap<>();
+        List<ContactPresence> changed = new ArrayList<>();
+        for (Map.Entry<Object, Object> entry : next.entrySet()) {
+            String userId = (String) entry.getKey();
+            Object value = entry.getValue();
+            delivered.put(userId, value);
+            if (!(value instanceof Map) || value.equals(members.get(userId))) {
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            ContactPresence presence = ContactPresence.from(userId, (Map<String, Object>) value);
+            if (presence != null) {
+                changed.add(presence);
+            }
+        }
+        members = delivered;
+        if (!changed.isEmpty()) {
+            callback.onContactsChanged(changed);
+        }
+    }
+
+    private void requestRebuild() {
+        if (rebuildRequested) {
+            return;
+        }
+        rebuildRequested = true;
+        // The listener receives the document once the function has written it
+        FirebaseFunctions.getInstance()
+                .getHttpsCallable("rebuildCircle")
+                .call()
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to build circle document", e);
+                    rebuildRequested = false;
+                    callback.onError(e);
+                });
+    }
+}
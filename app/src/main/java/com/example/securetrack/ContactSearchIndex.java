@@ -0,0 +1,173 @@
+package com.example.securetrack;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory name search over trusted contacts, maintained one contact at a time.
+ * Names are folded (accents stripped, lower-cased, whitespace collapsed). A contact matches
+ * when the folded query starts at a word boundary of its folded name, whatever the query's
+ * length, so typing another character only ever narrows the results. Candidates come from
+ * the smaller of two posting sets: the one- or two-character word prefix the query starts
+ * with, or for queries of three or more characters its rarest trigram. Each candidate is
+ * then verified against the name. Not thread-safe; confine to one thread.
+ */
+public class ContactSearchIndex {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final int GRAM_LENGTH = 3;
+
+    private final Map<String, TrustedContactsAdapter.TrustedContact> contacts = new HashMap<>();
+    private final Map<String, String> foldedNames = new HashMap<>();
+    private final Map<String, Set<String>> trigrams = new HashMap<>();
+    private final Map<String, Set<String>> wordPrefixes = new HashMap<>();
+
+    private final Comparator<String> byName = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            int comparison = foldedNames.get(a).compareTo(foldedNames.get(b));
+            return comparison != 0 ? comparison : a.compareTo(b);
+        }
+    };
+
+    /**
+     * Adds a contact, or re-indexes it if its document is already present.
+     */
+    public void put(TrustedContactsAdapter.TrustedContact contact) {
+        remove(contact.documentId);
+        String folded = fold(contact.name);
+        contacts.put(contact.documentId, contact);
+        foldedNames.put(contact.documentId, folded);
+        for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++) {
+            post(trigrams, folded.substring(i, i + GRAM_LENGTH), contact.documentId);
+        }
+        for (int i = 0; i < folded.length(); i++) {
+            if (isWordStart(folded, i)) {
+                post(wordPrefixes, folded.substring(i, i + 1), contact.documentId);
+                if (i + 1 < folded.length() && folded.charAt(i + 1) != ' ') {
+                    post(wordPrefixes, folded.substring(i, i + 2), contact.documentId);
+                }
+            }
+        }
+    }
+
+    public void remove(String documentId) {
+        String folded = foldedNames.remove(documentId);
+        if (folded == null) {
+            return;
+        }
+        contacts.remove(documentId);
+        for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++) {
+            unpost(trigrams, folded.substring(i, i + GRAM_LENGTH), documentId);
+        }
+        for (int i = 0; i < folded.length(); i++) {
+            if (isWordStart(folded, i)) {
+                unpost(wordPrefixes, folded.substring(i, i + 1), documentId);
+                if (i + 1 < folded.length() && folded.charAt(i + 1) != ' ') {
+                    unpost(wordPrefixes, folded.substring(i, i + 2), documentId);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return contacts.size();
+    }
+
+    public void clear() {
+        contacts.clear();
+        foldedNames.clear();
+        trigrams.clear();
+        wordPrefixes.clear();
+    }
+
+    /**
+     * Contacts with a word, or run of words, starting with the folded query, ordered by name.
+     */
+    public List<TrustedContactsAdapter.TrustedContact> search(String query, int limit) {
+        String folded = fold(query);
+        List<TrustedContactsAdapter.TrustedContact> results = new ArrayList<>();
+        if (folded.isEmpty()) {
+            return results;
+        }
+        // A folded query never starts with a space, but its second character may be one
+        String prefix = folded.length() > 1 && folded.charAt(1) != ' '
+                ? folded.substring(0, 2)
+                : folded.substring(0, 1);
+        Set<String> candidates = wordPrefixes.get(prefix);
+        if (candidates == null) {
+            return results;
+        }
+        for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++) {
+            Set<String> posting = trigrams.get(folded.substring(i, i + GRAM_LENGTH));
+            if (posting == null) {
+                return results;
+            }
+            if (posting.size() < candidates.size()) {
+                candidates = posting;
+            }
+        }
+        List<String> matches = new ArrayList<>();
+        for (String documentId : candidates) {
+            if (startsAtWord(foldedNames.get(documentId), folded)) {
+                matches.add(documentId);
+            }
+        }
+        Collections.sort(matches, byName);
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            results.add(contacts.get(matches.get(i)));
+        }
+        return results;
+    }
+
+    /**
+     * Search key for a name: "Zoë  Ångström" becomes "zoe angstrom".
+     */
+    public static String fold(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        String stripped = COMBINING_MARKS.matcher(decomposed).replaceAll("");
+        return WHITESPACE.matcher(stripped).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean startsAtWord(String folded, String query) {
+        for (int i = folded.indexOf(query); i >= 0; i = folded.indexOf(query, i + 1)) {
+            if (isWordStart(folded, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWordStart(String folded, int index) {
+        return folded.charAt(index) != ' ' && (index == 0 || folded.charAt(index - 1) == ' ');
+    }
+
+    private static void post(Map<String, Set<String>> postings, String key, String documentId) {
+        Set<String> posting = postings.get(key);
+        if (posting == null) {
+            posting = new HashSet<>();
+            postings.put(key, posting);
+        }
+        posting.add(documentId);
+    }
+
+    private static void unpost(Map<String, Set<String>> postings, String key, String documentId) {
+        Set<String> posting = postings.get(key);
+        if (posting != null && posting.remove(documentId) && posting.isEmpty()) {
+            postings.remove(key);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.securetrack;
+
+/**
+ * Allocation-free geodesy helpers shared by the location pipeline.
+ * Distances use the equirectangular approximation, which is accurate to well under a
+ * meter over the few kilometers the pipeline ever compares.
+ */
+public final class GeoMath {
+
+    public static final double EARTH_RADIUS_METERS = 6371008.8;
+    public static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS_METERS;
+
+    private GeoMath() {
+    }
+
+    /**
+     * Approximate distance between two coordinates.
+     *
+     * @return Distance in meters
+     */
+    public static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(longitudeDelta(lon1, lon2)) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_METERS;
+    }
+
+    /**
+     * Initial bearing from the first coordinate to the second, using the same local flat-earth
+     * approximation as {@link #distanceMeters}.
+     *
+     * @return Bearing in degrees clockwise from north, in [0, 360)
+     */
+    public static double bearingDegrees(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(longitudeDelta(lon1, lon2)) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        double bearing = Math.toDegrees(Math.atan2(x, y));
+        return bearing < 0 ? bearing + 360 : bearing;
+    }
+
+    /**
+     * {@code to - from} taken the short way round, so points either side of the antimeridian
+     * come out close together.
+     *
+     * @return Degrees in [-180, 180]
+     */
+    public static double longitudeDelta(double from, double to) {
+        double delta = to - from;
+        if (delta > 180) {
+            return delta - 360;
+        }
+        if (delta < -180) {
+            return delta + 360;
+        }
+        return delta;
+    }
+
+    /**
+     * Number of meters covered by one degree of longitude at the given latitude.
+     */
+    public static double metersPerDegreeLongitude(double latitude) {
+        return METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.securetrack;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * On-device evaluation of a user's safe zones against accepted fixes.
+ * Zones are circles stored in users/{uid}/safeZones. They are bucketed into a uniform
+ * latitude/longitude grid whose cell keys are kept sorted, so finding the candidate zones
+ * for a fix is one binary search plus a handful of distance checks, without allocating.
+ * Zones that would cover more than {@link #MAX_CELLS_PER_ZONE} cells (very large radii, or
+ * zones near a pole where a degree of longitude is short) are checked on every fix instead.
+ * Exiting requires leaving the circle by a small margin, so a fix wobbling on the border
+ * does not produce a burst of enter/exit events. The set of zones the user is inside is
+ * persisted so a restarted service does not repeat an enter event.
+ */
+public class GeofenceEngine {
+
+    private static final String PREFS_NAME = "geofence_state";
+    private static final String KEY_INSIDE_ZONES = "inside_zones";
+
+    // Grid cell size in degrees (~1.1 km of latitude)
+    private static final double CELL_DEGREES = 0.01;
+    // Cell columns around the globe; column keys wrap so zones can straddle the antimeridian
+    private static final int COLUMNS = (int) Math.round(360 / CELL_DEGREES);
+    // A zone spanning more cells than this skips the grid (a ~8 km radius at the equator)
+    private static final int MAX_CELLS_PER_ZONE = 256;
+    private static final double EXIT_MARGIN_METERS = 25;
+
+    /**
+     * Receives zone transitions as they are detected.
+     */
+    public interface TransitionListener {
+        void onZoneTransition(String zoneId, String zoneName, boolean entered,
+                              double latitude, double longitude, long time);
+    }
+
+    private final SharedPreferences prefs;
+    private final TransitionListener listener;
+
+    // Zones as parallel arrays
+    private String[] zoneIds = new String[0];
+    private String[] zoneNames = new String[0];
+    private double[] zoneLatitudes = new double[0];
+    private double[] zoneLongitudes = new double[0];
+    private double[] zoneRadii = new double[0];
+    private boolean[] inside = new boolean[0];
+
+    // Spatial index: sorted cell keys, each with the zones overlapping that cell
+    private long[] cellKeys = new long[0];
+    private int[][] cellZones = new int[0][];
+    // Zones too large for the grid, checked against every fix
+    private int[] largeZones = new int[0];
+
+    public GeofenceEngine(Context context, TransitionListener listener) {
+        this(context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE), listener);
+    }
+
+    GeofenceEngine(SharedPreferences prefs, TransitionListener listener) {
+        this.prefs = prefs;
+        this.listener = listener;
+    }
+
+    /**
+     * Replaces the zone set, keeping the inside/outside state of zones that still exist.
+     *
+     * @param documents Documents of users/{uid}/safeZones
+     */
+    public void setZones(List<DocumentSnapshot> documents) {
+        List<DocumentSnapshot> valid = new ArrayList<>(documents.size());
+        for (DocumentSnapshot document : documents) {
+            GeoPoint center = document.getGeoPoint("center");
+            Double radius = document.getDouble("radius");
+            if (center != null && radius != null && radius > 0) {
+                valid.add(document);
+            }
+        }
+
+        int count = valid.size();
+        String[] ids = new String[count];
+        String[] names = new String[count];
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        double[] radii = new double[count];
+        for (int i = 0; i < count; i++) {
+            DocumentSnapshot document = valid.get(i);
+            GeoPoint center = document.getGeoPoint("center");
+            ids[i] = document.getId();
+            names[i] = document.getString("name");
+            latitudes[i] = center.getLatitude();
+            longitudes[i] = center.getLongitude();
+            radii[i] = document.getDouble("radius");
+        }
+        setZones(ids, names, latitudes, longitudes, radii);
+    }
+
+    /**
+     * Replaces the zone set from already validated parallel arrays, which the engine takes over.
+     */
+    void setZones(String[] ids, String[] names, double[] latitudes, double[] longitudes, double[] radii) {
+        Set<String> insideIds = new HashSet<>(prefs.getStringSet(KEY_INSIDE_ZONES, new HashSet<String>()));
+
+        zoneIds = ids;
+        zoneNames = names;
+        zoneLatitudes = latitudes;
+        zoneLongitudes = longitudes;
+        zoneRadii = radii;
+        inside = new boolean[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            inside[i] = insideIds.contains(ids[i]);
+        }
+        buildIndex();
+        persistInside();
+    }
+
+    /**
+     * Evaluates every fix of a batch in order and reports transitions.
+     *
+     * @param batch Accepted fixes in time order
+     */
+    public void evaluate(LocationBatch batch) {
+        boolean changed = false;
+        for (int i = 0; i < batch.size(); i++) {
+            changed |= evaluate(batch.getLatitude(i), batch.getLongitude(i), batch.getTime(i));
+        }
+        if (changed) {
+            persistInside();
+        }
+    }
+
+    private boolean evaluate(double latitude, double longitude, long time) {
+        boolean changed = false;
+
+        // Exits: only zones the user is currently in need checking
+        for (int zone = 0; zone < inside.length; zone++) {
+            if (inside[zone] && distanceTo(zone, latitude, longitude) > zoneRadii[zone] + EXIT_MARGIN_METERS) {
+                inside[zone] = false;
+                changed = true;
+                listener.onZoneTransition(zoneIds[zone], zoneNames[zone], false, latitude, longitude, time);
+            }
+        }
+
+        // Entries: only zones overlapping the fix's grid cell are candidates, plus large zones
+        int cell = Arrays.binarySearch(cellKeys, cellKey(cellRow(latitude), cellColumn(longitude)));
+        if (cell >= 0) {
+            changed |= enter(cellZones[cell], latitude, longitude, time);
+        }
+        changed |= enter(largeZones, latitude, longitude, time);
+        return changed;
+    }
+
+    private boolean enter(int[] candidates, double latitude, double longitude, long time) {
+        boolean changed = false;
+        for (int zone : candidates) {
+            if (!inside[zone] && distanceTo(zone, latitude, longitude) <= zoneRadii[zone]) {
+                inside[zone] = true;
+                changed = true;
+                listener.onZoneTransition(zoneIds[zone], zoneNames[zone], true, latitude, longitude, time);
+            }
+        }
+        return changed;
+    }
+
+    private double distanceTo(int zone, double latitude, double longitude) {
+        return GeoMath.distanceMeters(zoneLatitudes[zone], zoneLongitudes[zone], latitude, longitude);
+    }
+
+    private void buildIndex() {
+        // Collect (cell, zone) pairs for every cell a zone's bounding box overlaps
+        List<long[]> pairs = new ArrayList<>();
+        int[] large = new int[zoneIds.length];
+        int largeCount = 0;
+        for (int zone = 0; zone < zoneIds.length; zone++) {
+            double latSpan = zoneRadii[zone] / GeoMath.METERS_PER_DEGREE;
+            double lonSpan = zoneRadii[zone] / Math.max(1, GeoMath.metersPerDegreeLongitude(zoneLatitudes[zone]));
+            int minRow = cellRow(zoneLatitudes[zone] - latSpan);
+            int maxRow = cellRow(zoneLatitudes[zone] + latSpan);
+            // Unwrapped so the span is a plain difference; keys wrap below
+            int minColumn = (int) Math.floor((zoneLongitudes[zone] - lonSpan) / CELL_DEGREES);
+            int maxColumn = (int) Math.floor((zoneLongitudes[zone] + lonSpan) / CELL_DEGREES);
+            long cells = ((long) maxRow - minRow + 1) * ((long) maxColumn - minColumn + 1);
+            if (cells > MAX_CELLS_PER_ZONE) {
+                large[largeCount++] = zone;
+                continue;
+            }
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int column = minColumn; column <= maxColumn; column++) {
+                    pairs.add(new long[]{cellKey(row, Math.floorMod(column, COLUMNS)), zone});
+                }
+            }
+        }
+        largeZones = Arrays.copyOf(large, largeCount);
+        // Collections.sort rather than List.sort, which needs API 24
+        Collections.sort(pairs, (a, b) -> Long.compare(a[0], b[0]));
+
+        int distinct = 0;
+        for (int i = 0; i < pairs.size(); i++) {
+            if (i == 0 || pairs.get(i)[0] != pairs.get(i - 1)[0]) {
+                distinct++;
+            }
+        }
+        long[] keys = new long[distinct];
+        int[][] zones = new int[distinct][];
+        int start = 0;
+        int cell = 0;
+        for (int i = 1; i <= pairs.size(); i++) {
+            if (i == pairs.size() || pairs.get(i)[0] != pairs.get(start)[0]) {
+                keys[cell] = pairs.get(start)[0];
+                zones[cell] = new int[i - start];
+                for (int j = start; j < i; j++) {
+                    zones[cell][j - start] = (int) pairs.get(j)[1];
+                }
+                cell++;
+                start = i;
+            }
+        }
+        cellKeys = keys;
+        cellZones = zones;
+    }
+
+    private void persistInside() {
+        Set<String> insideIds = new HashSet<>();
+        for (int zone = 0; zone < inside.length; zone++) {
+            if (inside[zone]) {
+                insideIds.add(zoneIds[zone]);
+            }
+        }
+        prefs.edit().putStringSet(KEY_INSIDE_ZONES, insideIds).apply();
+    }
+
+    private static int cellRow(double latitude) {
+        return (int) Math.floor(latitude / CELL_DEGREES);
+    }
+
+    private static int cellColumn(double longitude) {
+        return Math.floorMod((int) Math.floor(longitude / CELL_DEGREES), COLUMNS);
+    }
+
+    private static long cellKey(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.securetrack;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Scrubbable playback of one user's history.
+ * History is read in fixed windows of {@link #WINDOW_MS}; each window is loaded on demand
+ * through a Source that seeks by time (a binary search over TrackStore segments, or a
+ * range query over trackBuckets), and at most {@link #MAX_CACHED_WINDOWS} decoded windows are
+ * kept. Seeking inside a loaded window is a binary search plus an interpolation; the next
+ * window in the direction of travel is prefetched so scrubbing streams instead of stalling.
+ * Main thread only.
+ */
+public class HistoryPlayback {
+    private static final String TAG = "HistoryPlayback";
+
+    private static final long WINDOW_MS = 30 * 60 * 1000;
+    private static final int MAX_CACHED_WINDOWS = 6;
+    // Gaps longer than this are not interpolated across
+    private static final long MAX_INTERPOLATION_GAP_MS = 10 * 60 * 1000;
+
+    /**
+     * Loads the fixes of a time range, oldest first.
+     */
+    public interface Source {
+        Task<TrackPoints> load(long fromTime, long toTime);
+    }
+
+    public interface Listener {
+        void onPosition(long time, double latitude, double longitude);
+
+        /**
+         * No fix close enough to the requested time.
+         */
+        void onNoData(long time);
+    }
+
+    private final Source source;
+    private final Listener listener;
+    private final LruCache<Long, TrackPoints> windows = new LruCache<>(MAX_CACHED_WINDOWS);
+    private final Set<Long> loading = new HashSet<>();
+    private long requestedTime = -1;
+    private long previousTime = -1;
+    private boolean released = false;
+
+    public HistoryPlayback(Source source, Listener listener) {
+        this.source = source;
+        this.listener = listener;
+    }
+
+    public static Source ownSource(final Context context) {
+        return new Source() {
+            @Override
+            public Task<TrackPoints> load(long fromTime, long toTime) {
+                return RouteLoader.loadOwn(context, fromTime, toTime);
+            }
+        };
+    }
+
+    public static Source contactSource(final FirebaseFirestore db, final String userId) {
+        return new Source() {
+            @Override
+            public Task<TrackPoints> load(long fromTime, long toTime) {
+                return RouteLoader.loadContact(db, userId, fromTime, toTime);
+            }
+        };
+    }
+
+    /**
+     * Moves playback to {@code time}. The listener is called immediately if the window is
+     * loaded, otherwise once it arrives (unless a later seek superseded it).
+     */
+    public void seek(long time) {
+        long direction = previousTime >= 0 ? Long.signum(time - previousTime) : 1;
+        previousTime = time;
+        requestedTime = time;
+        long window = time / WINDOW_MS;
+        TrackPoints points = windows.get(window);
+        if (points != null) {
+            deliver(points, time);
+        } else {
+            load(window);
+        }
+        if (direction != 0) {
+            load(window + direction);
+        }
+    }
+
+    public void release() {
+        released = true;
+        windows.evictAll();
+    }
+
+    private void load(final long window) {
+        if (windows.get(window) != null || !loading.add(window)) {
+            return;
+        }
+        source.load(window * WINDOW_MS, (window + 1) * WINDOW_MS - 1)
+                .addOnCompleteListener(task -> {
+                    loading.remove(window);
+                    if (released) {
+                        return;
+                    }
+                    if (!task.isSuccessful()) {
+                        Log.e(TAG, "Error loading history window", task.getException());
+                        return;
+                    }
+                    windows.put(window, task.getResult());
+                    if (requestedTime >= 0 && requestedTime / WINDOW_MS == window) {
+                        deliver(task.getResult(), requestedTime);
+                    }
+                });
+    }
+
+    private void deliver(TrackPoints points, long time) {
+        int after = points.indexAtOrAfter(time);
+        int before = after - 1;
+        boolean hasAfter = after < points.size()
+                && points.getTime(after) - time <= MAX_INTERPOLATION_GAP_MS;
+        boolean hasBefore = before >= 0
+                && time - points.getTime(before) <= MAX_INTERPOLATION_GAP_MS;
+        if (hasBefore && hasAfter) {
+            long span = points.getTime(after) - points.getTime(before);
+            double fraction = span > 0 ? (time - points.getTime(before)) / (double) span : 0;
+            listener.onPosition(time,
+                    points.getLatitude(before) + (points.getLatitude(after) - points.getLatitude(before)) * fraction,
+                    points.getLongitude(before) + (points.getLongitude(after) - points.getLongitude(before)) * fraction);
+        } else if (hasBefore) {
+            listener.onPosition(time, points.getLatitude(before), points.getLongitude(before));
+        } else if (hasAfter) {
+            listener.onPosition(time, points.getLatitude(after), points.getLongitude(after));
+        } else {
+            listener.onNoData(time);
+        }
+    }
+}
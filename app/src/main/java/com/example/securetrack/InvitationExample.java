@@ -30,14 +30,28 @@ public class InvitationExample extends AppCompatActivity {
     }
     
     /**
-     * Example of generating a single invitation code
+     * Example of generating and storing a single invitation code that others can redeem
      */
     private void generateInvitationCodeExample() {
-        String invitationCode = InvitationUtils.generateInvitationCode();
-        Toast.makeText(this, "Generated invitation code: " + invitationCode, Toast.LENGTH_LONG).show();
-        
-        // Log the code for debugging (remove in production)
-        System.out.println("Generated invitation code: " + invitationCode);
+        InvitationUtils.createInvitationCode(
+            new OnSuccessListener<String>() {
+                @Override
+                public void onSuccess(String invitationCode) {
+                    Toast.makeText(InvitationExample.this, 
+                        "Generated invitation code: " + invitationCode, Toast.LENGTH_LONG).show();
+                    
+                    // Log the code for debugging (remove in production)
+                    System.out.println("Generated invitation code: " + invitationCode);
+                }
+            },
+            new OnFailureListener() {
+                @Override
+                public void onFailure(@NonNull Exception e) {
+                    Toast.makeText(InvitationExample.this, 
+                        "Failed to create invitation code: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                }
+            }
+        );
     }
     
     /**
@@ -4,11 +4,21 @@ import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
+import com.google.firebase.Timestamp;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.functions.FirebaseFunctions;
+import com.google.firebase.functions.HttpsCallableResult;
 
 import java.security.SecureRandom;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -20,6 +30,13 @@ public class InvitationUtils {
     private static final String ALPHANUMERIC_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
     private static final SecureRandom SECURE_RANDOM = new SecureRandom();
     
+    // Stored invitation codes, one document per code: invitationCodes/{code}
+    private static final String INVITATION_CODES_COLLECTION = "invitationCodes";
+    // Codes expire after a week; a TTL policy on expiresAt deletes them
+    private static final long INVITATION_LIFETIME_MS = 7L * 24 * 60 * 60 * 1000;
+    // Tries with fresh codes if a generated code is already taken
+    private static final int MAX_CREATE_ATTEMPTS = 3;
+    
     /**
      * Generates a secure, random, 8-character alphanumeric invitation code.
      * Uses SecureRandom for cryptographically strong random number generation.
@@ -37,6 +54,97 @@ public class InvitationUtils {
         return invitationCode.toString();
     }
     
+    /**
+     * Generates an invitation code for the current user and stores it as
+     * invitationCodes/{code} with an expiry time, so it can later be redeemed by code alone.
+     * 
+     * @param onSuccessListener Receives the stored code
+     * @param onFailureListener Callback for failed creation
+     */
+    public static void createInvitationCode(OnSuccessListener<String> onSuccessListener,
+                                            OnFailureListener onFailureListener) {
+        FirebaseAuth auth = FirebaseAuth.getInstance();
+        
+        if (auth.getCurrentUser() != null) {
+            createInvitationCode(auth.getCurrentUser().getUid(), 1, onSuccessListener, onFailureListener);
+        } else {
+            onFailureListener.onFailure(new Exception("No authenticated user found"));
+        }
+    }
+    
+    private static void createInvitationCode(final String ownerId, final int attempt,
+                                             final OnSuccessListener<String> onSuccessListener,
+                                             final OnFailureListener onFailureListener) {
+        
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+        final String invitationCode = generateInvitationCode();
+        final DocumentReference codeRef = db.collection(INVITATION_CODES_COLLECTION).document(invitationCode);
+        
+        final Map<String, Object> invitation = new HashMap<>();
+        invitation.put("ownerId", ownerId);
+        invitation.put("createdAt", FieldValue.serverTimestamp());
+        invitation.put("expiresAt", new Timestamp(new Date(System.currentTimeMillis() + INVITATION_LIFETIME_MS)));
+        
+        // The transaction keeps a colliding code from overwriting someone else's invitation
+        db.runTransaction(new Transaction.Function<Void>() {
+            @Override
+            public Void apply(Transaction transaction) throws FirebaseFirestoreException {
+                if (transaction.get(codeRef).exists()) {
+                    throw new FirebaseFirestoreException("Invitation code already in use",
+                            FirebaseFirestoreException.Code.ALREADY_EXISTS);
+                }
+                transaction.set(codeRef, invitation);
+                return null;
+            }
+        }).addOnSuccessListener(new OnSuccessListener<Void>() {
+            @Override
+            public void onSuccess(Void aVoid) {
+                onSuccessListener.onSuccess(invitationCode);
+            }
+        }).addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(Exception e) {
+                boolean collision = e instanceof FirebaseFirestoreException
+                        && ((FirebaseFirestoreException) e).getCode() == FirebaseFirestoreException.Code.ALREADY_EXISTS;
+                if (collision && attempt < MAX_CREATE_ATTEMPTS) {
+                    createInvitationCode(ownerId, attempt + 1, onSuccessListener, onFailureListener);
+                } else {
+                    onFailureListener.onFailure(e);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Redeems another user's invitation code through the redeemInvitation Cloud Function.
+     * The function validates the code, adds each user to the other's trusted contacts and
+     * consumes the code in a single transaction.
+     * 
+     * @param invitationCode The code to redeem; case and surrounding spaces are ignored
+     * @param onSuccessListener Receives the new contact's name
+     * @param onFailureListener Callback for a missing, expired or own code, or a failed call
+     */
+    public static void redeemInvitationCode(String invitationCode,
+                                            final OnSuccessListener<String> onSuccessListener,
+                                            OnFailureListener onFailureListener) {
+        
+        Map<String, Object> data = new HashMap<>();
+        data.put("code", invitationCode.trim().toUpperCase(Locale.ROOT));
+        
+        FirebaseFunctions.getInstance()
+          .getHttpsCallable("redeemInvitation")
+          .call(data)
+          .addOnSuccessListener(new OnSuccessListener<HttpsCallableResult>() {
+              @Override
+              public void onSuccess(HttpsCallableResult result) {
+                  Object response = result.getData();
+                  Object contactName = response instanceof Map ? ((Map<?, ?>) response).get("contactName") : null;
+                  onSuccessListener.onSuccess(contactName instanceof String ? (String) contactName : null);
+              }
+          })
+          .addOnFailureListener(onFailureListener);
+    }
+    
     /**
      * Adds a new trusted contact to the user's trustedContacts sub-collection in Firestore.
      * 
@@ -58,6 +166,9 @@ public class InvitationUtils {
         trustedContact.put("uid", trustedContactUid);
         trustedContact.put("name", trustedContactName);
         trustedContact.put("addedAt", System.currentTimeMillis()); // Timestamp when added
+        // Server time, so devices can sync only what changed since their last sync
+        trustedContact.put(TrustedContactStore.FIELD_UPDATED_AT, FieldValue.serverTimestamp());
+        trustedContact.put(TrustedContactStore.FIELD_DELETED, false);
         
         // Add to the sub-collection: /users/{userId}/trustedContacts/{trustedContactUid}
         db.collection("users")
@@ -96,6 +207,8 @@ public class InvitationUtils {
     
     /**
      * Removes a trusted contact from the user's trustedContacts sub-collection.
+     * The document is kept as a tombstone ({@code deleted: true}) so that devices syncing
+     * by updatedAt also see the removal.
      * 
      * @param userId The UID of the user removing the trusted contact
      * @param trustedContactUid The UID of the trusted contact to remove
@@ -108,11 +221,15 @@ public class InvitationUtils {
         
         FirebaseFirestore db = FirebaseFirestore.getInstance();
         
+        Map<String, Object> tombstone = new HashMap<>();
+        tombstone.put(TrustedContactStore.FIELD_DELETED, true);
+        tombstone.put(TrustedContactStore.FIELD_UPDATED_AT, FieldValue.serverTimestamp());
+        
         db.collection("users")
           .document(userId)
           .collection("trustedContacts")
           .document(trustedContactUid)
-          .delete()
+          .set(tombstone, SetOptions.merge())
           .addOnSuccessListener(onSuccessListener)
           .addOnFailureListener(onFailureListener);
     }
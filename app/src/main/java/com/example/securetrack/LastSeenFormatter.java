@@ -0,0 +1,136 @@
+package com.example.securetrack;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Resources;
+import android.text.format.DateFormat;
+
+import androidx.core.content.ContextCompat;
+
+import java.text.FieldPosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Thread-safe "last seen" text shared by the map, contacts list and notifications.
+ * Recent times are relative ("5 min ago", from string and plurals resources); older ones
+ * fall back to a date and time in the locale's preferred pattern. Each thread keeps its own
+ * SimpleDateFormat, Date and buffer, so formatting never builds a formatter. The time zone
+ * is cached and refreshed on ACTION_TIMEZONE_CHANGED; the per-thread formatter is rebuilt
+ * when it or the default locale changes. {@link #init} must run before the first format.
+ */
+public final class LastSeenFormatter {
+
+    private static final long MINUTE_MS = 60 * 1000;
+    private static final long HOUR_MS = 60 * MINUTE_MS;
+    // Older than this shows the absolute time
+    private static final long RELATIVE_LIMIT_MS = 12 * HOUR_MS;
+
+    private static final class State {
+        Locale locale;
+        TimeZone timeZone;
+        SimpleDateFormat absolute;
+        final Date date = new Date();
+        final StringBuffer buffer = new StringBuffer(32);
+        final FieldPosition fieldPosition = new FieldPosition(0);
+    }
+
+    private static volatile Resources resources;
+    private static volatile TimeZone timeZone = TimeZone.getDefault();
+
+    private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    private LastSeenFormatter() {
+    }
+
+    /**
+     * Binds the formatter to the application's resources and starts following time zone
+     * changes. Called once from {@link SecureTrackApplication#onCreate()}.
+     */
+    public static void init(Context context) {
+        Context application = context.getApplicationContext();
+        resources = application.getResources();
+        ContextCompat.registerReceiver(application, new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                // The new zone travels with the broadcast; the default may not be reset yet
+                String id = intent.getStringExtra("time-zone");
+                timeZone = id != null ? TimeZone.getTimeZone(id) : TimeZone.getDefault();
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED), ContextCompat.RECEIVER_NOT_EXPORTED);
+    }
+
+    /**
+     * Marker/list text such as "Last seen: 5 min ago".
+     *
+     * @param lastSeenMillis Epoch millis, or a negative value if never seen
+     */
+    public static String formatLastSeen(long lastSeenMillis, long nowMillis) {
+        if (lastSeenMillis < 0) {
+            return resources.getString(R.string.last_seen_never);
+        }
+        return resources.getString(R.string.last_seen, formatTime(lastSeenMillis, nowMillis));
+    }
+
+    /**
+     * Relative or absolute time without a prefix, e.g. "Just now" or "Mar 3, 2025 14:05".
+     */
+    public static String formatTime(long timeMillis, long nowMillis) {
+        State state = STATE.get();
+        state.buffer.setLength(0);
+        appendTime(state, timeMillis, nowMillis);
+        return state.buffer.toString();
+    }
+
+    /**
+     * Milliseconds until the relative text for {@code timeMillis} next changes, for scheduling
+     * a refresh; Long.MAX_VALUE once it shows an absolute time.
+     */
+    public static long millisUntilChange(long timeMillis, long nowMillis) {
+        long age = Math.max(0, nowMillis - timeMillis);
+        if (age >= RELATIVE_LIMIT_MS) {
+            return Long.MAX_VALUE;
+        }
+        long unit = age < HOUR_MS ? MINUTE_MS : HOUR_MS;
+        return unit - age % unit;
+    }
+
+    private static void appendTime(State state, long timeMillis, long nowMillis) {
+        StringBuffer buffer = state.buffer;
+        long age = Math.max(0, nowMillis - timeMillis);
+        if (age < MINUTE_MS) {
+            buffer.append(resources.getString(R.string.last_seen_just_now));
+        } else if (age < HOUR_MS) {
+            int minutes = (int) (age / MINUTE_MS);
+            buffer.append(resources.getQuantityString(R.plurals.last_seen_minutes_ago, minutes, minutes));
+        } else if (age < RELATIVE_LIMIT_MS) {
+            int hours = (int) (age / HOUR_MS);
+            buffer.append(resources.getQuantityString(R.plurals.last_seen_hours_ago, hours, hours));
+        } else {
+            state.date.setTime(timeMillis);
+            absoluteFormat(state).format(state.date, buffer, state.fieldPosition);
+        }
+    }
+
+    private static SimpleDateFormat absoluteFormat(State state) {
+        Locale locale = Locale.getDefault();
+        TimeZone zone = timeZone;
+        if (state.absolute == null || !locale.equals(state.locale) || zone != state.timeZone) {
+            state.locale = locale;
+            state.timeZone = zone;
+            state.absolute = new SimpleDateFormat(
+                    DateFormat.getBestDateTimePattern(locale, "MMMdyyyyjjmm"), locale);
+            state.absolute.setTimeZone(zone);
+        }
+        return state.absolute;
+    }
+}
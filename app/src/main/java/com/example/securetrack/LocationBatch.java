@@ -0,0 +1,152 @@
+package com.example.securetrack;
+
+import android.location.Location;
+
+import com.google.android.gms.location.LocationResult;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An ordered batch of location fixes handed through the LocationService pipeline as one unit.
+ * FusedLocationProvider delivers several fixes per callback once setMaxUpdateDelayMillis
+ * allows batching; every fix keeps its own time, accuracy and speed.
+ * Fixes are held in parallel primitive arrays so a batch can be cleared and refilled
+ * without allocating per fix.
+ */
+public class LocationBatch {
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private long[] times;
+    private float[] accuracies;
+    private float[] speeds;
+    private int size;
+
+    public LocationBatch(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        times = new long[capacity];
+        accuracies = new float[capacity];
+        speeds = new float[capacity];
+    }
+
+    /**
+     * Replaces the contents of this batch with every fix of a LocationResult, oldest first.
+     *
+     * @param locationResult The result delivered to LocationCallback
+     */
+    public void fill(LocationResult locationResult) {
+        clear();
+        List<Location> locations = locationResult.getLocations();
+        for (int i = 0; i < locations.size(); i++) {
+            add(locations.get(i));
+        }
+    }
+
+    public void add(Location location) {
+        add(location.getLatitude(),
+                location.getLongitude(),
+                location.getTime(),
+                location.hasAccuracy() ? location.getAccuracy() : 0f,
+                location.hasSpeed() ? location.getSpeed() : 0f);
+    }
+
+    public void add(double latitude, double longitude, long time, float accuracy, float speed) {
+        ensureCapacity(size + 1);
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        times[size] = time;
+        accuracies[size] = accuracy;
+        speeds[size] = speed;
+        size++;
+    }
+
+    /**
+     * Appends every fix of another batch after the fixes already held.
+     */
+    public void addAll(LocationBatch other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.latitudes, 0, latitudes, size, other.size);
+        System.arraycopy(other.longitudes, 0, longitudes, size, other.size);
+        System.arraycopy(other.times, 0, times, size, other.size);
+        System.arraycopy(other.accuracies, 0, accuracies, size, other.size);
+        System.arraycopy(other.speeds, 0, speeds, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Copies the fix at {@code from} over the fix at {@code to}; used by stages that
+     * compact a batch in place.
+     */
+    public void moveFix(int from, int to) {
+        latitudes[to] = latitudes[from];
+        longitudes[to] = longitudes[from];
+        times[to] = times[from];
+        accuracies[to] = accuracies[from];
+        speeds[to] = speeds[from];
+    }
+
+    /**
+     * Overwrites the position and accuracy of a fix, keeping its time and speed.
+     */
+    public void setPosition(int index, double latitude, double longitude, float accuracy) {
+        latitudes[index] = latitude;
+        longitudes[index] = longitude;
+        accuracies[index] = accuracy;
+    }
+
+    /**
+     * Drops every fix at or after {@code newSize}.
+     */
+    public void truncate(int newSize) {
+        if (newSize < size) {
+            size = Math.max(0, newSize);
+        }
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public float getAccuracy(int index) {
+        return accuracies[index];
+    }
+
+    public float getSpeed(int index) {
+        return speeds[index];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= times.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, times.length * 2);
+        latitudes = Arrays.copyOf(latitudes, newCapacity);
+        longitudes = Arrays.copyOf(longitudes, newCapacity);
+        times = Arrays.copyOf(times, newCapacity);
+        accuracies = Arrays.copyOf(accuracies, newCapacity);
+        speeds = Arrays.copyOf(speeds, newCapacity);
+    }
+}
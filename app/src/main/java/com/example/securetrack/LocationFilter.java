@@ -0,0 +1,109 @@
+package com.example.securetrack;
+
+/**
+ * Redundancy filter run before fixes are journaled for upload.
+ * A fix is accepted only if it lies outside the envelope of the last accepted fix:
+ * farther than the minimum displacement and farther than its own accuracy radius, so
+ * GPS jitter around a parked phone is not mistaken for movement. Fixes whose accuracy
+ * is too poor to be useful are dropped outright. While nothing is accepted, a heartbeat
+ * is signalled at a much lower rate so users/{uid}.lastSeen stays fresh, either by a batch
+ * whose fixes were all dropped or by a timer calling {@link #heartbeatDue}.
+ */
+public class LocationFilter {
+
+    private final float minDisplacementMeters;
+    private final float maxAccuracyMeters;
+    private final long heartbeatIntervalMillis;
+
+    private boolean hasAccepted = false;
+    private double lastLatitude;
+    private double lastLongitude;
+    // Time of the last accepted fix or heartbeat
+    private long lastEmitTime = Long.MIN_VALUE;
+    private long heartbeatTime = -1;
+
+    /**
+     * @param minDisplacementMeters   Movement below this distance is treated as redundant
+     * @param maxAccuracyMeters       Fixes less accurate than this are discarded
+     * @param heartbeatIntervalMillis Minimum time between heartbeats while nothing is accepted
+     */
+    public LocationFilter(float minDisplacementMeters, float maxAccuracyMeters, long heartbeatIntervalMillis) {
+        this.minDisplacementMeters = minDisplacementMeters;
+        this.maxAccuracyMeters = maxAccuracyMeters;
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+    }
+
+    /**
+     * Removes redundant fixes from the batch in place, keeping accepted fixes in order.
+     *
+     * @param batch Fixes in time order; on return holds only accepted fixes
+     */
+    public void apply(LocationBatch batch) {
+        heartbeatTime = -1;
+        if (batch.isEmpty()) {
+            return;
+        }
+        long newestTime = batch.getTime(batch.size() - 1);
+        int kept = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            float accuracy = batch.getAccuracy(i);
+            // Accuracy 0 means the provider did not report one
+            if (accuracy > maxAccuracyMeters) {
+                continue;
+            }
+            double latitude = batch.getLatitude(i);
+            double longitude = batch.getLongitude(i);
+            if (hasAccepted) {
+                double distance = GeoMath.distanceMeters(lastLatitude, lastLongitude, latitude, longitude);
+                if (distance < Math.max(minDisplacementMeters, accuracy)) {
+                    continue;
+                }
+            }
+            hasAccepted = true;
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+            lastEmitTime = batch.getTime(i);
+            if (kept != i) {
+                batch.moveFix(i, kept);
+            }
+            kept++;
+        }
+        batch.truncate(kept);
+
+        if (kept == 0) {
+            if (lastEmitTime == Long.MIN_VALUE || newestTime - lastEmitTime >= heartbeatIntervalMillis) {
+                lastEmitTime = newestTime;
+                heartbeatTime = newestTime;
+            }
+        }
+    }
+
+    /**
+     * Timer-driven heartbeat, for when no batches arrive at all (a parked phone produces no
+     * fixes once the request's minimum update distance applies).
+     *
+     * @param now Current time in epoch millis
+     * @return true if a heartbeat is due; it is then counted as emitted
+     */
+    public boolean heartbeatDue(long now) {
+        if (lastEmitTime != Long.MIN_VALUE && now - lastEmitTime < heartbeatIntervalMillis) {
+            return false;
+        }
+        lastEmitTime = now;
+        return true;
+    }
+
+    /**
+     * @return Earliest time at which the next heartbeat can be due
+     */
+    public long getNextHeartbeatTime() {
+        return lastEmitTime == Long.MIN_VALUE ? Long.MIN_VALUE : lastEmitTime + heartbeatIntervalMillis;
+    }
+
+    /**
+     * @return Time of the heartbeat signalled by the last {@link #apply} call, or -1 if none
+     */
+    public long getHeartbeatTime() {
+        return heartbeatTime;
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.securetrack;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.GeoPoint;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Drains the LocationJournal to Firestore on a fixed cadence.
+ * Each flush commits one WriteBatch holding the newest fix as users/{uid}.lastLocation
+ * plus the journaled fixes appended to their time-bucketed history documents (see
+ * TrackBuckets), i.e. one write per 15 minutes of history rather than one per fix.
+ * Journal rows are deleted only after the batch commits, so a flush interrupted by
+ * process death or lost connectivity is simply retried on the next run; chunk keys come
+ * from fix times, so such a retry overwrites rather than duplicates history.
+ */
+public class LocationFlusher {
+    private static final String TAG = "LocationFlusher";
+
+    private static final int MAX_FIXES_PER_FLUSH = 4000;
+    // Bucket writes per WriteBatch, under Firestore's 500 operation limit
+    private static final int MAX_BUCKETS_PER_FLUSH = 400;
+    // Shorter moves give a heading dominated by position noise
+    private static final double MIN_BEARING_DISTANCE_METERS = 10;
+    // How long stopAfterFinalFlush waits for the last commit before giving up on it
+    private static final long FINAL_FLUSH_TIMEOUT_MILLIS = 5000;
+
+    private final LocationJournal journal;
+    private final FirebaseFirestore db;
+    private final FirebaseAuth mAuth;
+    private final Handler handler;
+    private final Executor callbackExecutor;
+    private final long flushIntervalMillis;
+
+    private volatile boolean running = false;
+    private boolean flushInFlight = false;
+    // Newest heartbeat not yet uploaded, -1 if none
+    private long pendingHeartbeatTime = -1;
+    // Run once the final flush completes or times out, null unless stopping
+    private Runnable onStopped;
+
+    private final Runnable stopTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, "Final flush did not complete, leaving fixes in journal");
+            finishStop();
+        }
+    };
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+            if (running) {
+                handler.postDelayed(this, flushIntervalMillis);
+            }
+        }
+    };
+
+    /**
+     * @param looper Looper of the thread that owns the journal; all flushing and Firestore
+     *               completion handling runs there
+     */
+    public LocationFlusher(LocationJournal journal, long flushIntervalMillis, Looper looper) {
+        this.journal = journal;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.db = FirebaseFirestore.getInstance();
+        this.mAuth = FirebaseAuth.getInstance();
+        this.handler = new Handler(looper);
+        this.callbackExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+
+    /**
+     * Starts the periodic flush. The first flush runs immediately so that fixes
+     * left in the journal by a previous process are uploaded right away.
+     */
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        handler.post(flushRunnable);
+    }
+
+    public void stop() {
+        running = false;
+        handler.removeCallbacks(flushRunnable);
+    }
+
+    /**
+     * Stops the periodic flush after one last upload of the journal. {@code onStopped} runs on
+     * the flusher's thread once that commit (or one already in flight) completes and its
+     * journal rows are deleted, or after {@link #FINAL_FLUSH_TIMEOUT_MILLIS} if it does not
+     * (e.g. offline), so the caller can quit the thread without dropping the completion.
+     */
+    public void stopAfterFinalFlush(final Runnable onStopped) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                stop();
+                LocationFlusher.this.onStopped = onStopped;
+                flush();
+                if (flushInFlight) {
+                    handler.postDelayed(stopTimeoutRunnable, FINAL_FLUSH_TIMEOUT_MILLIS);
+                } else {
+                    finishStop();
+                }
+            }
+        });
+    }
+
+    /**
+     * Records that the device is alive without having moved. The next flush refreshes
+     * users/{uid}.lastSeen even if the journal is empty. Must be called on the flusher's thread.
+     *
+     * @param time Time of the heartbeat fix
+     */
+    public void recordHeartbeat(long time) {
+        pendingHeartbeatTime = Math.max(pendingHeartbeatTime, time);
+    }
+
+    /**
+     * Schedules an immediate flush on the flusher's thread.
+     */
+    public void flushNow() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Uploads the oldest journaled fixes if no other flush is outstanding.
+     */
+    private void flush() {
+        if (flushInFlight) {
+            return;
+        }
+        if (mAuth.getCurrentUser() == null) {
+            Log.w(TAG, "No authenticated user found, keeping fixes in journal");
+            return;
+        }
+
+        final List<LocationJournal.Entry> entries = journal.readOldest(MAX_FIXES_PER_FLUSH);
+        String userId = mAuth.getCurrentUser().getUid();
+        DocumentReference userRef = db.collection("users").document(userId);
+        final long heartbeatTime = pendingHeartbeatTime;
+        if (entries.isEmpty()) {
+            if (heartbeatTime >= 0) {
+                flushHeartbeat(userRef, heartbeatTime);
+            }
+            return;
+        }
+
+        WriteBatch batch = db.batch();
+
+        // Append each run of fixes sharing a bucket as one chunk of that bucket's document
+        int uploaded = 0;
+        int buckets = 0;
+        while (uploaded < entries.size() && buckets < MAX_BUCKETS_PER_FLUSH) {
+            long bucketStart = TrackBuckets.bucketStart(entries.get(uploaded).time);
+            int end = uploaded + 1;
+            while (end < entries.size() && TrackBuckets.bucketStart(entries.get(end).time) == bucketStart) {
+                end++;
+            }
+            Map<String, Object> chunks = new HashMap<>();
+            chunks.put(String.valueOf(entries.get(uploaded).time),
+                    TrackBuckets.encodeChunk(entries, uploaded, end, bucketStart));
+            Map<String, Object> bucket = new HashMap<>();
+            bucket.put(TrackBuckets.FIELD_START, bucketStart);
+            bucket.put(TrackBuckets.FIELD_END, entries.get(end - 1).time);
+            bucket.put(TrackBuckets.FIELD_CHUNKS, chunks);
+            batch.set(userRef.collection(TrackBuckets.COLLECTION).document(TrackBuckets.documentId(bucketStart)),
+                    bucket, SetOptions.merge());
+            uploaded = end;
+            buckets++;
+        }
+
+        // Newest uploaded fix becomes the user's current position. Speed, heading and fix time
+        // let viewers dead-reckon the marker between sparse uploads; heading is unknown (-1)
+        // when there is no earlier fix in this flush to take it from.
+        LocationJournal.Entry newest = entries.get(uploaded - 1);
+        double bearing = -1;
+        if (uploaded > 1) {
+            LocationJournal.Entry previous = entries.get(uploaded - 2);
+            if (GeoMath.distanceMeters(previous.latitude, previous.longitude,
+                    newest.latitude, newest.longitude) >= MIN_BEARING_DISTANCE_METERS) {
+                bearing = GeoMath.bearingDegrees(previous.latitude, previous.longitude,
+                        newest.latitude, newest.longitude);
+            }
+        }
+        // A merge rather than update(): update() fails on a missing user document and would
+        // take the whole batch, and with it every later flush, down with it
+        Map<String, Object> position = new HashMap<>();
+        position.put("lastLocation", new GeoPoint(newest.latitude, newest.longitude));
+        position.put("lastSeen", new Timestamp(new Date(Math.max(newest.time, heartbeatTime))));
+        position.put("lastFixTime", newest.time);
+        position.put("lastSpeed", newest.speed);
+        position.put("lastBearing", bearing);
+        batch.set(userRef, position, SetOptions.merge());
+
+        final long lastId = newest.id;
+        final int uploadedCount = uploaded;
+        final boolean backlog = uploaded < entries.size() || entries.size() == MAX_FIXES_PER_FLUSH;
+        flushInFlight = true;
+        batch.commit().addOnCompleteListener(callbackExecutor, new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                flushInFlight = false;
+                if (task.isSuccessful()) {
+                    journal.deleteUpTo(lastId);
+                    clearHeartbeat(heartbeatTime);
+                    Log.d(TAG, "Flushed " + uploadedCount + " fixes to Firestore");
+                    // Keep draining a backlog left by a long offline period
+                    if (running && backlog) {
+                        flushNow();
+                    }
+                } else {
+                    Log.e(TAG, "Failed to flush location journal", task.getException());
+                }
+                finishStop();
+            }
+        });
+    }
+
+    private void flushHeartbeat(DocumentReference userRef, final long heartbeatTime) {
+        flushInFlight = true;
+        Map<String, Object> seen = new HashMap<>();
+        seen.put("lastSeen", new Timestamp(new Date(heartbeatTime)));
+        userRef.set(seen, SetOptions.merge())
+                .addOnCompleteListener(callbackExecutor, new OnCompleteListener<Void>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Void> task) {
+                        flushInFlight = false;
+                        if (task.isSuccessful()) {
+                            clearHeartbeat(heartbeatTime);
+                            Log.d(TAG, "Heartbeat uploaded");
+                        } else {
+                            Log.e(TAG, "Failed to upload heartbeat", task.getException());
+                        }
+                        finishStop();
+                    }
+                });
+    }
+
+    /**
+     * Completes a pending stopAfterFinalFlush, if any.
+     */
+    private void finishStop() {
+        Runnable callback = onStopped;
+        if (callback == null) {
+            return;
+        }
+        onStopped = null;
+        handler.removeCallbacks(stopTimeoutRunnable);
+        callback.run();
+    }
+
+    private void clearHeartbeat(long uploadedTime) {
+        // A newer heartbeat may have been recorded while the upload was in flight
+        if (pendingHeartbeatTime <= uploadedTime) {
+            pendingHeartbeatTime = -1;
+        }
+    }
+}
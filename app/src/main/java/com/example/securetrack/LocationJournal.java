@@ -0,0 +1,152 @@
+package com.example.securetrack;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only on-device journal of location fixes.
+ * Every fix received by LocationService lands here first; LocationFlusher drains
+ * the journal to Firestore and deletes rows only after the upload has committed,
+ * so fixes taken offline or before a process death are not lost.
+ */
+public class LocationJournal extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "location_journal.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_FIXES = "fixes";
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_LATITUDE = "latitude";
+    private static final String COLUMN_LONGITUDE = "longitude";
+    private static final String COLUMN_TIME = "time";
+    private static final String COLUMN_ACCURACY = "accuracy";
+    private static final String COLUMN_SPEED = "speed";
+
+    private static LocationJournal instance;
+
+    /**
+     * A journaled fix as read back for upload.
+     */
+    public static class Entry {
+        public final long id;
+        public final double latitude;
+        public final double longitude;
+        public final long time;
+        public final float accuracy;
+        public final float speed;
+
+        Entry(long id, double latitude, double longitude, long time, float accuracy, float speed) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.time = time;
+            this.accuracy = accuracy;
+            this.speed = speed;
+        }
+    }
+
+    public static synchronized LocationJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new LocationJournal(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private LocationJournal(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // WAL keeps appends cheap while the flusher reads
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_FIXES + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_LATITUDE + " REAL NOT NULL, "
+                + COLUMN_LONGITUDE + " REAL NOT NULL, "
+                + COLUMN_TIME + " INTEGER NOT NULL, "
+                + COLUMN_ACCURACY + " REAL NOT NULL, "
+                + COLUMN_SPEED + " REAL NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FIXES);
+        onCreate(db);
+    }
+
+    /**
+     * Appends every fix of a batch to the journal in a single transaction, preserving order.
+     *
+     * @param batch The fixes to persist
+     */
+    public void append(LocationBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues(5);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                values.put(COLUMN_LATITUDE, batch.getLatitude(i));
+                values.put(COLUMN_LONGITUDE, batch.getLongitude(i));
+                values.put(COLUMN_TIME, batch.getTime(i));
+                values.put(COLUMN_ACCURACY, batch.getAccuracy(i));
+                values.put(COLUMN_SPEED, batch.getSpeed(i));
+                db.insert(TABLE_FIXES, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Reads the oldest journaled fixes in append order.
+     *
+     * @param limit Maximum number of entries to return
+     * @return Up to {@code limit} entries, oldest first
+     */
+    public List<Entry> readOldest(int limit) {
+        List<Entry> entries = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE_FIXES,
+                new String[]{COLUMN_ID, COLUMN_LATITUDE, COLUMN_LONGITUDE, COLUMN_TIME, COLUMN_ACCURACY, COLUMN_SPEED},
+                null, null, null, null, COLUMN_ID + " ASC", String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                entries.add(new Entry(
+                        cursor.getLong(0),
+                        cursor.getDouble(1),
+                        cursor.getDouble(2),
+                        cursor.getLong(3),
+                        cursor.getFloat(4),
+                        cursor.getFloat(5)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Removes every entry up to and including {@code lastId}, once it has been uploaded.
+     *
+     * @param lastId The id of the last uploaded entry
+     */
+    public void deleteUpTo(long lastId) {
+        getWritableDatabase().delete(TABLE_FIXES, COLUMN_ID + " <= ?",
+                new String[]{String.valueOf(lastId)});
+    }
+}
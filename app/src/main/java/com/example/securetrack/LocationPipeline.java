@@ -0,0 +1,234 @@
+package com.example.securetrack;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.location.LocationResult;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Off-main-thread ingestion pipeline for LocationService.
+ * FusedLocationProvider delivers callbacks on a dedicated ingest thread, which only copies
+ * the fixes into a pooled LocationBatch and enqueues it. A second thread drains the bounded
+ * queue and runs the processing stage (filtering, journaling, upload). When the processing
+ * thread falls behind, new fixes are coalesced into the newest pending batch rather than
+ * growing the queue, and only once that batch is full is the oldest pending batch dropped.
+ * The main thread receives at most one pending, coalesced notification of the latest fix.
+ */
+public class LocationPipeline {
+    private static final String TAG = "LocationPipeline";
+
+    private static final int MAX_PENDING_BATCHES = 8;
+    private static final int MAX_FIXES_PER_BATCH = 256;
+
+    /**
+     * Processing stage, invoked on the pipeline thread for every batch in order.
+     */
+    public interface Stage {
+        void process(LocationBatch batch);
+    }
+
+    /**
+     * Receives the latest accepted fix on the main thread.
+     */
+    public interface UiListener {
+        void onLatestFix(double latitude, double longitude, long time);
+    }
+
+    private final Stage stage;
+    private final HandlerThread ingestThread = new HandlerThread("LocationIngest");
+    private final HandlerThread processThread = new HandlerThread("LocationPipeline");
+    private Handler processHandler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Object lock = new Object();
+    private final ArrayDeque<LocationBatch> pending = new ArrayDeque<>(MAX_PENDING_BATCHES);
+    private final ArrayDeque<LocationBatch> pool = new ArrayDeque<>(MAX_PENDING_BATCHES + 1);
+    private boolean drainScheduled = false;
+    private int droppedBatches = 0;
+
+    private UiListener uiListener;
+    private boolean uiNotificationPending = false;
+    private double latestLatitude;
+    private double latestLongitude;
+    private long latestTime;
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Runnable uiNotifyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            UiListener listener;
+            double latitude;
+            double longitude;
+            long time;
+            synchronized (lock) {
+                uiNotificationPending = false;
+                listener = uiListener;
+                latitude = latestLatitude;
+                longitude = latestLongitude;
+                time = latestTime;
+            }
+            if (listener != null) {
+                listener.onLatestFix(latitude, longitude, time);
+            }
+        }
+    };
+
+    public LocationPipeline(Stage stage) {
+        this.stage = stage;
+    }
+
+    public void start() {
+        ingestThread.start();
+        processThread.start();
+        processHandler = new Handler(processThread.getLooper());
+    }
+
+    /**
+     * Stops both threads. Batches already queued are still processed before the thread exits.
+     */
+    public void quit() {
+        ingestThread.quitSafely();
+        processThread.quitSafely();
+        mainHandler.removeCallbacks(uiNotifyRunnable);
+    }
+
+    /**
+     * Looper on which location callbacks should be delivered.
+     */
+    public Looper getIngestLooper() {
+        return ingestThread.getLooper();
+    }
+
+    /**
+     * Looper of the processing thread, for components that must share it (e.g. the flusher).
+     */
+    public Looper getProcessLooper() {
+        return processThread.getLooper();
+    }
+
+    /**
+     * Executor running tasks on the processing thread, e.g. for Firestore listeners whose
+     * results feed pipeline stages.
+     */
+    public Executor getProcessExecutor() {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                processHandler.post(command);
+            }
+        };
+    }
+
+    public void setUiListener(UiListener listener) {
+        synchronized (lock) {
+            uiListener = listener;
+        }
+    }
+
+    /**
+     * Enqueues every fix of a LocationResult. Called on the ingest thread.
+     */
+    public void submit(LocationResult locationResult) {
+        synchronized (lock) {
+            LocationBatch batch = obtainBatch();
+            batch.fill(locationResult);
+            enqueue(batch);
+        }
+    }
+
+    /**
+     * Enqueues a single fix, e.g. from a one-off getLastLocation() request.
+     */
+    public void submit(Location location) {
+        synchronized (lock) {
+            LocationBatch batch = obtainBatch();
+            batch.add(location);
+            enqueue(batch);
+        }
+    }
+
+    /**
+     * Publishes the newest fix to the main thread. Called on the pipeline thread; bursts of
+     * calls collapse into a single main-thread callback carrying the latest values.
+     */
+    public void publishLatest(double latitude, double longitude, long time) {
+        synchronized (lock) {
+            latestLatitude = latitude;
+            latestLongitude = longitude;
+            latestTime = time;
+            if (uiListener == null || uiNotificationPending) {
+                return;
+            }
+            uiNotificationPending = true;
+        }
+        mainHandler.post(uiNotifyRunnable);
+    }
+
+    // Must hold lock
+    private void enqueue(LocationBatch batch) {
+        if (batch.isEmpty()) {
+            pool.push(batch);
+            return;
+        }
+        if (pending.size() >= MAX_PENDING_BATCHES) {
+            LocationBatch newest = pending.peekLast();
+            if (newest.size() + batch.size() <= MAX_FIXES_PER_BATCH) {
+                // Backpressure: coalesce instead of queueing another batch
+                newest.addAll(batch);
+                pool.push(batch);
+                return;
+            }
+            pool.push(pending.pollFirst());
+            droppedBatches++;
+            Log.w(TAG, "Pipeline saturated, dropped oldest batch (" + droppedBatches + " total)");
+        }
+        pending.addLast(batch);
+        if (!drainScheduled && processHandler != null) {
+            drainScheduled = true;
+            processHandler.post(drainRunnable);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            LocationBatch batch;
+            synchronized (lock) {
+                batch = pending.pollFirst();
+                if (batch == null) {
+                    drainScheduled = false;
+                    return;
+                }
+            }
+            try {
+                stage.process(batch);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Location batch processing failed", e);
+            }
+            synchronized (lock) {
+                pool.push(batch);
+            }
+        }
+    }
+
+    // Must hold lock
+    private LocationBatch obtainBatch() {
+        LocationBatch batch = pool.poll();
+        if (batch == null) {
+            return new LocationBatch(16);
+        }
+        batch.clear();
+        return batch;
+    }
+}
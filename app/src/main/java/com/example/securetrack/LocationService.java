@@ -12,6 +12,7 @@ import android.content.pm.PackageManager;
 import android.location.Location;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
 import android.util.Log;
@@ -26,25 +27,69 @@ import com.google.android.gms.location.LocationCallback;
 import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
-import com.google.android.gms.location.Priority;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
+import com.google.firebase.Timestamp;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.GeoPoint;
-import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 public class LocationService extends Service {
     private static final String TAG = "LocationService";
     private static final String CHANNEL_ID = "location_service_channel";
     private static final int NOTIFICATION_ID = 1;
+    // How often journaled fixes are uploaded to Firestore
+    private static final long FLUSH_INTERVAL_MILLIS = 60000;
+    // Fixes closer than this to the last uploaded fix are redundant
+    private static final float MIN_DISPLACEMENT_METERS = 25f;
+    private static final float MAX_ACCURACY_METERS = 200f;
+    // While the phone is parked, lastSeen is still refreshed this often
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 5 * 60 * 1000;
     
     private FusedLocationProviderClient fusedLocationClient;
     private LocationCallback locationCallback;
+    private LocationJournal locationJournal;
+    private LocationFlusher locationFlusher;
+    private LocationPipeline locationPipeline;
+    private GeofenceEngine geofenceEngine;
+    @Nullable
+    private TrackStore trackStore;
+    private ListenerRegistration safeZonesRegistration;
     private FirebaseFirestore db;
     private FirebaseAuth mAuth;
-    private boolean isLocationUpdatesActive = false;
+    // Owned by the pipeline thread
+    private final LocationSmoother locationSmoother = new LocationSmoother();
+    private final SamplingPolicy samplingPolicy = new SamplingPolicy(SamplingPolicy.Mode.WALKING);
+    private final LocationFilter locationFilter = new LocationFilter(
+            MIN_DISPLACEMENT_METERS, MAX_ACCURACY_METERS, HEARTBEAT_INTERVAL_MILLIS);
+    // Location requests are only issued or removed on the main thread
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean isLocationUpdatesActive = false;
+    // Runs on the pipeline thread; keeps lastSeen fresh while no fixes are delivered
+    private Handler heartbeatHandler;
+    private final Runnable heartbeatRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            boolean active = isLocationUpdatesActive;
+            if (active && locationFilter.heartbeatDue(now)) {
+                locationFlusher.recordHeartbeat(now);
+            }
+            // Wake up exactly when the next heartbeat falls due, not on a fixed tick
+            long delay = active ? locationFilter.getNextHeartbeatTime() - now : HEARTBEAT_INTERVAL_MILLIS;
+            heartbeatHandler.postDelayed(this, delay);
+        }
+    };
     
     private final IBinder binder = new LocationServiceBinder();
     
@@ -59,9 +104,42 @@ public class LocationService extends Service {
         super.onCreate();
         Log.d(TAG, "LocationService created");
         
-        // Initialize Firebase
+        // Fix processing runs on dedicated threads, never on the main Looper
+        locationPipeline = new LocationPipeline(new LocationPipeline.Stage() {
+            @Override
+            public void process(LocationBatch batch) {
+                onLocationBatch(batch);
+            }
+        });
+        locationPipeline.start();
+        
+        // Fixes are journaled on-device first and uploaded in batches;
+        // starting the flusher here also resumes any upload left by a previous process
+        locationJournal = LocationJournal.getInstance(this);
+        locationFlusher = new LocationFlusher(locationJournal, FLUSH_INTERVAL_MILLIS,
+                locationPipeline.getProcessLooper());
+        locationFlusher.start();
+        heartbeatHandler = new Handler(locationPipeline.getProcessLooper());
+        heartbeatHandler.postDelayed(heartbeatRunnable, HEARTBEAT_INTERVAL_MILLIS);
+        
+        // Accepted fixes are also kept as local history
+        try {
+            trackStore = TrackStore.getInstance(this);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open track store, location history disabled", e);
+        }
+        
+        // Safe zones are evaluated on-device; only transitions reach Firestore
         db = FirebaseFirestore.getInstance();
         mAuth = FirebaseAuth.getInstance();
+        geofenceEngine = new GeofenceEngine(this, new GeofenceEngine.TransitionListener() {
+            @Override
+            public void onZoneTransition(String zoneId, String zoneName, boolean entered,
+                                         double latitude, double longitude, long time) {
+                recordZoneTransition(zoneId, zoneName, entered, latitude, longitude, time);
+            }
+        });
+        listenForSafeZones();
         
         // Initialize FusedLocationProviderClient
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
@@ -100,7 +178,21 @@ public class LocationService extends Service {
     public void onDestroy() {
         super.onDestroy();
         Log.d(TAG, "LocationService destroyed");
+        mainHandler.removeCallbacksAndMessages(null);
+        heartbeatHandler.removeCallbacks(heartbeatRunnable);
         stopLocationUpdates();
+        if (safeZonesRegistration != null) {
+            safeZonesRegistration.remove();
+            safeZonesRegistration = null;
+        }
+        // The pipeline thread also delivers the final commit, so it quits only after that
+        final LocationPipeline pipeline = locationPipeline;
+        locationFlusher.stopAfterFinalFlush(new Runnable() {
+            @Override
+            public void run() {
+                pipeline.quit();
+            }
+        });
     }
     
     private void createNotificationChannel() {
@@ -145,11 +237,8 @@ public class LocationService extends Service {
             @Override
             public void onLocationResult(@NonNull LocationResult locationResult) {
                 super.onLocationResult(locationResult);
-                Location location = locationResult.getLastLocation();
-                if (location != null) {
-                    Log.d(TAG, "Location received: " + location.getLatitude() + ", " + location.getLongitude());
-                    updateUserLocationInFirestore(location);
-                }
+                // Runs on the ingest thread: hand every fix of the delivery to the pipeline
+                locationPipeline.submit(locationResult);
             }
         };
     }
@@ -160,57 +249,125 @@ public class LocationService extends Service {
             return;
         }
         
-        LocationRequest locationRequest = new LocationRequest.Builder(
-            Priority.PRIORITY_HIGH_ACCURACY, 10000) // 10 seconds interval
-            .setMinUpdateIntervalMillis(5000) // Minimum 5 seconds between updates
-            .setMaxUpdateDelayMillis(15000) // Maximum 15 seconds delay
-            .build();
+        requestLocationUpdates(samplingPolicy.getMode());
+    }
+    
+    private void requestLocationUpdates(SamplingPolicy.Mode mode) {
+        LocationRequest locationRequest = mode.toLocationRequest();
         
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) 
                 == PackageManager.PERMISSION_GRANTED) {
+            // Re-requesting with the same callback replaces the previous request
             fusedLocationClient.requestLocationUpdates(
                 locationRequest,
                 locationCallback,
-                Looper.getMainLooper()
+                locationPipeline.getIngestLooper()
             );
             isLocationUpdatesActive = true;
-            Log.d(TAG, "Location updates started");
+            Log.d(TAG, "Location updates started in " + mode + " mode");
         }
     }
     
-    private void stopLocationUpdates() {
-        if (isLocationUpdatesActive) {
-            fusedLocationClient.removeLocationUpdates(locationCallback);
-            isLocationUpdatesActive = false;
-            Log.d(TAG, "Location updates stopped");
+    /**
+     * Processing stage, run on the pipeline thread. Fixes are smoothed first; the sampling
+     * policy sees every smoothed fix, and only fixes that survive the redundancy filter are
+     * journaled for upload.
+     */
+    private void onLocationBatch(LocationBatch batch) {
+        Log.d(TAG, "Location batch received: " + batch.size() + " fixes");
+        
+        locationSmoother.apply(batch);
+        if (batch.isEmpty()) {
+            return;
+        }
+        
+        if (samplingPolicy.onBatch(batch)) {
+            final SamplingPolicy.Mode mode = samplingPolicy.getMode();
+            Log.d(TAG, "Sampling mode changed to " + mode);
+            // Checked again on the main thread, after any stop that was already queued,
+            // so a mode switch cannot revive updates that were just removed
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isLocationUpdatesActive) {
+                        requestLocationUpdates(mode);
+                    }
+                }
+            });
+        }
+        
+        locationFilter.apply(batch);
+        if (batch.isEmpty()) {
+            long heartbeatTime = locationFilter.getHeartbeatTime();
+            if (heartbeatTime >= 0) {
+                locationFlusher.recordHeartbeat(heartbeatTime);
+            }
+            return;
         }
+        
+        locationJournal.append(batch);
+        if (trackStore != null) {
+            trackStore.append(batch);
+        }
+        geofenceEngine.evaluate(batch);
+        
+        int last = batch.size() - 1;
+        locationPipeline.publishLatest(batch.getLatitude(last), batch.getLongitude(last), batch.getTime(last));
     }
     
-    private void updateUserLocationInFirestore(Location location) {
+    private void listenForSafeZones() {
         if (mAuth.getCurrentUser() == null) {
-            Log.w(TAG, "No authenticated user found");
+            Log.w(TAG, "No authenticated user found, safe zones disabled");
             return;
         }
         
-        String userId = mAuth.getCurrentUser().getUid();
-        GeoPoint geoPoint = new GeoPoint(location.getLatitude(), location.getLongitude());
-        Timestamp timestamp = Timestamp.now();
-        
-        // Update the user document in Firestore
-        db.collection("users").document(userId)
-            .update("lastLocation", geoPoint, "lastSeen", timestamp)
-            .addOnCompleteListener(new OnCompleteListener<Void>() {
+        // Delivered on the pipeline thread, which owns the geofence engine
+        safeZonesRegistration = db.collection("users")
+            .document(mAuth.getCurrentUser().getUid())
+            .collection("safeZones")
+            .addSnapshotListener(locationPipeline.getProcessExecutor(), new EventListener<QuerySnapshot>() {
                 @Override
-                public void onComplete(@NonNull Task<Void> task) {
-                    if (task.isSuccessful()) {
-                        Log.d(TAG, "User location updated successfully in Firestore");
-                    } else {
-                        Log.e(TAG, "Failed to update user location in Firestore", task.getException());
+                public void onEvent(@Nullable QuerySnapshot snapshots, @Nullable FirebaseFirestoreException e) {
+                    if (e != null) {
+                        Log.e(TAG, "Failed to load safe zones", e);
+                        return;
+                    }
+                    if (snapshots != null) {
+                        geofenceEngine.setZones(snapshots.getDocuments());
+                        Log.d(TAG, "Loaded " + snapshots.size() + " safe zones");
                     }
                 }
             });
     }
     
+    private void recordZoneTransition(String zoneId, String zoneName, boolean entered,
+                                      double latitude, double longitude, long time) {
+        if (mAuth.getCurrentUser() == null) {
+            return;
+        }
+        Log.d(TAG, (entered ? "Entered" : "Left") + " safe zone " + zoneId);
+        
+        Map<String, Object> event = new HashMap<>();
+        event.put("zoneId", zoneId);
+        event.put("zoneName", zoneName);
+        event.put("type", entered ? "enter" : "exit");
+        event.put("location", new GeoPoint(latitude, longitude));
+        event.put("time", new Timestamp(new Date(time)));
+        
+        db.collection("users").document(mAuth.getCurrentUser().getUid())
+            .collection("zoneEvents")
+            .add(event)
+            .addOnFailureListener(e -> Log.e(TAG, "Failed to record safe zone transition", e));
+    }
+    
+    private void stopLocationUpdates() {
+        if (isLocationUpdatesActive) {
+            fusedLocationClient.removeLocationUpdates(locationCallback);
+            isLocationUpdatesActive = false;
+            Log.d(TAG, "Location updates stopped");
+        }
+    }
+    
     // Public methods for controlling the service
     public void startLocationTracking() {
         if (checkLocationPermissions()) {
@@ -224,6 +381,16 @@ public class LocationService extends Service {
         stopLocationUpdates();
     }
     
+    /**
+     * Registers a listener that receives the latest fix on the main thread.
+     * Notifications are coalesced, so a slow listener only ever sees the newest fix.
+     *
+     * @param listener The listener, or null to unregister
+     */
+    public void setLocationUpdateListener(@Nullable LocationPipeline.UiListener listener) {
+        locationPipeline.setUiListener(listener);
+    }
+    
     public boolean isLocationUpdatesActive() {
         return isLocationUpdatesActive;
     }
@@ -243,7 +410,9 @@ public class LocationService extends Service {
                         if (task.isSuccessful() && task.getResult() != null) {
                             Location location = task.getResult();
                             Log.d(TAG, "Current location retrieved: " + location.getLatitude() + ", " + location.getLongitude());
-                            updateUserLocationInFirestore(location);
+                            locationPipeline.submit(location);
+                            // An explicit request should not wait for the next scheduled flush
+                            locationFlusher.flushNow();
                         } else {
                             Log.e(TAG, "Failed to get current location", task.getException());
                         }
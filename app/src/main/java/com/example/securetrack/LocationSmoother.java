@@ -0,0 +1,197 @@
+package com.example.securetrack;
+
+/**
+ * Constant-velocity Kalman smoothing stage for incoming fixes.
+ * Each axis (north and east, in meters from a local origin) is tracked independently with
+ * a position/velocity state and 2x2 covariance; the measurement noise of every fix is its
+ * reported accuracy, so precise fixes pull the estimate harder than coarse ones. Fixes whose
+ * innovation is far outside the predicted uncertainty are rejected as outliers.
+ * All state is held in primitive fields and the batch is rewritten in place, so smoothing
+ * allocates nothing per fix.
+ */
+public class LocationSmoother {
+
+    // Process noise: how fast velocity may change, in m/s^2
+    private static final double ACCELERATION_NOISE = 1.5;
+    // Used when a provider does not report accuracy
+    private static final double DEFAULT_ACCURACY_METERS = 30;
+    private static final double MIN_ACCURACY_METERS = 3;
+    // Squared Mahalanobis distance above which a fix is an outlier (~4 sigma on two axes)
+    private static final double OUTLIER_GATE = 16;
+    // After this many consecutive rejections the filter assumes it lost track and resets
+    private static final int MAX_CONSECUTIVE_REJECTIONS = 3;
+    // A gap this long makes the previous estimate worthless
+    private static final long RESET_GAP_MILLIS = 10 * 60 * 1000;
+    // Keep the local tangent plane small enough for the flat-earth approximation
+    private static final double REBASE_DISTANCE_METERS = 5000;
+
+    private boolean initialized = false;
+    private double originLatitude;
+    private double originLongitude;
+    private double metersPerDegreeLongitude;
+    private long lastTime;
+    private int consecutiveRejections = 0;
+
+    // North axis state and covariance
+    private double northPosition;
+    private double northVelocity;
+    private double northP00;
+    private double northP01;
+    private double northP11;
+
+    // East axis state and covariance
+    private double eastPosition;
+    private double eastVelocity;
+    private double eastP00;
+    private double eastP01;
+    private double eastP11;
+
+    // Scratch values written by updateAxis()
+    private double axisPosition;
+    private double axisVelocity;
+    private double axisP00;
+    private double axisP01;
+    private double axisP11;
+
+    /**
+     * Smooths a batch in place: accepted fixes are replaced by the filtered estimate and
+     * their accuracy by the estimate's uncertainty; outliers are removed.
+     *
+     * @param batch Fixes in time order
+     */
+    public void apply(LocationBatch batch) {
+        int kept = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            double latitude = batch.getLatitude(i);
+            double longitude = batch.getLongitude(i);
+            long time = batch.getTime(i);
+            double accuracy = batch.getAccuracy(i) > 0
+                    ? Math.max(batch.getAccuracy(i), MIN_ACCURACY_METERS)
+                    : DEFAULT_ACCURACY_METERS;
+
+            if (!initialized || time - lastTime > RESET_GAP_MILLIS
+                    || consecutiveRejections >= MAX_CONSECUTIVE_REJECTIONS) {
+                reset(latitude, longitude, time, accuracy);
+            } else if (!update(latitude, longitude, time, accuracy)) {
+                consecutiveRejections++;
+                continue;
+            }
+            consecutiveRejections = 0;
+            if (Math.abs(northPosition) > REBASE_DISTANCE_METERS
+                    || Math.abs(eastPosition) > REBASE_DISTANCE_METERS) {
+                rebase();
+            }
+
+            if (kept != i) {
+                batch.moveFix(i, kept);
+            }
+            batch.setPosition(kept,
+                    originLatitude + northPosition / GeoMath.METERS_PER_DEGREE,
+                    originLongitude + eastPosition / metersPerDegreeLongitude,
+                    (float) Math.sqrt(Math.max(northP00, eastP00)));
+            kept++;
+        }
+        batch.truncate(kept);
+    }
+
+    private void reset(double latitude, double longitude, long time, double accuracy) {
+        initialized = true;
+        originLatitude = latitude;
+        originLongitude = longitude;
+        metersPerDegreeLongitude = GeoMath.metersPerDegreeLongitude(latitude);
+        lastTime = time;
+
+        double variance = accuracy * accuracy;
+        northPosition = 0;
+        northVelocity = 0;
+        northP00 = variance;
+        northP01 = 0;
+        northP11 = 100; // velocity unknown, allow ~10 m/s
+        eastPosition = 0;
+        eastVelocity = 0;
+        eastP00 = variance;
+        eastP01 = 0;
+        eastP11 = 100;
+    }
+
+    private void rebase() {
+        originLatitude += northPosition / GeoMath.METERS_PER_DEGREE;
+        originLongitude += eastPosition / metersPerDegreeLongitude;
+        metersPerDegreeLongitude = GeoMath.metersPerDegreeLongitude(originLatitude);
+        northPosition = 0;
+        eastPosition = 0;
+    }
+
+    /**
+     * Predicts to {@code time} and fuses the measurement.
+     *
+     * @return false if the fix was rejected as an outlier; the state is left untouched
+     */
+    private boolean update(double latitude, double longitude, long time, double accuracy) {
+        double dt = Math.max(0, (time - lastTime) / 1000.0);
+        double measurementVariance = accuracy * accuracy;
+        double measuredNorth = (latitude - originLatitude) * GeoMath.METERS_PER_DEGREE;
+        double measuredEast = (longitude - originLongitude) * metersPerDegreeLongitude;
+
+        // Predict both axes, then gate on the combined innovation
+        double q = ACCELERATION_NOISE * ACCELERATION_NOISE;
+        double dt2 = dt * dt;
+        double q00 = q * dt2 * dt2 / 4;
+        double q01 = q * dt2 * dt / 2;
+        double q11 = q * dt2;
+
+        double predNorth = northPosition + northVelocity * dt;
+        double predNorthP00 = northP00 + 2 * dt * northP01 + dt2 * northP11 + q00;
+        double predEast = eastPosition + eastVelocity * dt;
+        double predEastP00 = eastP00 + 2 * dt * eastP01 + dt2 * eastP11 + q00;
+
+        double northInnovation = measuredNorth - predNorth;
+        double eastInnovation = measuredEast - predEast;
+        double mahalanobis = northInnovation * northInnovation / (predNorthP00 + measurementVariance)
+                + eastInnovation * eastInnovation / (predEastP00 + measurementVariance);
+        if (mahalanobis > OUTLIER_GATE) {
+            return false;
+        }
+
+        updateAxis(northPosition, northVelocity, northP00, northP01, northP11,
+                dt, q00, q01, q11, measuredNorth, measurementVariance);
+        northPosition = axisPosition;
+        northVelocity = axisVelocity;
+        northP00 = axisP00;
+        northP01 = axisP01;
+        northP11 = axisP11;
+
+        updateAxis(eastPosition, eastVelocity, eastP00, eastP01, eastP11,
+                dt, q00, q01, q11, measuredEast, measurementVariance);
+        eastPosition = axisPosition;
+        eastVelocity = axisVelocity;
+        eastP00 = axisP00;
+        eastP01 = axisP01;
+        eastP11 = axisP11;
+
+        lastTime = time;
+        return true;
+    }
+
+    private void updateAxis(double position, double velocity, double p00, double p01, double p11,
+                            double dt, double q00, double q01, double q11,
+                            double measurement, double measurementVariance) {
+        // Predict
+        double predPosition = position + velocity * dt;
+        double predP00 = p00 + 2 * dt * p01 + dt * dt * p11 + q00;
+        double predP01 = p01 + dt * p11 + q01;
+        double predP11 = p11 + q11;
+
+        // Update with a position-only measurement
+        double s = predP00 + measurementVariance;
+        double k0 = predP00 / s;
+        double k1 = predP01 / s;
+        double innovation = measurement - predPosition;
+
+        axisPosition = predPosition + k0 * innovation;
+        axisVelocity = velocity + k1 * innovation;
+        axisP00 = (1 - k0) * predP00;
+        axisP01 = (1 - k0) * predP01;
+        axisP11 = predP11 - k1 * predP01;
+    }
+}
@@ -2,12 +2,17 @@ package com.example.securetrack;
 
 import android.Manifest;
 import android.content.pm.PackageManager;
+import android.graphics.Color;
 import android.location.Location;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ProgressBar;
+import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -16,6 +21,7 @@ import androidx.annotation.Nullable;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.Lifecycle;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
@@ -25,32 +31,72 @@ import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.GeoPoint;
-import com.google.firebase.firestore.QuerySnapshot;
 
-import java.text.SimpleDateFormat;
+import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Locale;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class MapFragment extends Fragment implements OnMapReadyCallback, GoogleMap.OnInfoWindowClickListener {
 
+    private static final String TAG = "MapFragment";
     private static final int LOCATION_PERMISSION_REQUEST_CODE = 1001;
+    // Presence updates arrive in bursts; recluster once they settle
+    private static final long RECLUSTER_DELAY_MS = 300;
+    // Contacts this far outside the visible region (as a fraction of its span) keep their markers
+    private static final double VIEWPORT_MARGIN = 0.5;
+    private static final long LAST_SEEN_REFRESH_MAX_MS = 60 * 1000;
+    private static final long ROUTE_HISTORY_MS = 24 * 60 * 60 * 1000L;
+    private static final String OWN_ROUTE_ID = "self";
+    private static final int OWN_ROUTE_COLOR = Color.argb(200, 66, 133, 244);
+    private static final int CONTACT_ROUTE_COLOR = Color.argb(200, 219, 68, 55);
+    private static final long PLAYBACK_STEP_MS = 60 * 1000;
     private GoogleMap mMap;
     private FirebaseFirestore db;
     private FirebaseAuth mAuth;
     private FusedLocationProviderClient fusedLocationClient;
     private ProgressBar progressBar;
     private TextView errorMessage;
-    private Map<String, Marker> userMarkers = new HashMap<>();
+    private View playbackBar;
+    private TextView playbackTitle;
+    private TextView playbackTime;
+    private SeekBar playbackSeekBar;
+    private UserMarkerLayer userMarkers;
+    private ContactPresenceListener presenceListener;
+    private boolean cameraPositioned = false;
+    private MarkerClusterer clusterer;
+    private String currentUserId;
+    // Every known contact position; markers exist only for materializedIds
+    private final ContactPositionStore contactPositions = new ContactPositionStore();
+    private final Set<String> materializedIds = new HashSet<>();
+    private PresenceCache presenceCache;
+    private RouteRenderer routeRenderer;
+    private HistoryPlayback playback;
+    private Marker playbackMarker;
+    private long playbackStart;
+    private DateFormat playbackTimeFormat;
+    private long currentUserLastSeen = -1;
+    private final Runnable lastSeenRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refreshLastSeen();
+        }
+    };
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable reclusterRunnable = new Runnable() {
+        @Override
+        public void run() {
+            recluster();
+        }
+    };
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
@@ -70,6 +116,27 @@ public class MapFragment extends Fragment implements OnMapReadyCallback, GoogleM
         // Initialize views
         progressBar = view.findViewById(R.id.progress_bar);
         errorMessage = view.findViewById(R.id.tv_error_message);
+        playbackBar = view.findViewById(R.id.playback_bar);
+        playbackTitle = view.findViewById(R.id.tv_playback_title);
+        playbackTime = view.findViewById(R.id.tv_playback_time);
+        playbackSeekBar = view.findViewById(R.id.seek_playback);
+        playbackSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (playback != null) {
+                    playback.seek(playbackStart + progress * PLAYBACK_STEP_MS);
+                }
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+            }
+        });
+        view.findViewById(R.id.btn_playback_close).setOnClickListener(v -> stopPlayback());
 
         // Initialize map fragment
         SupportMapFragment mapFragment = (SupportMapFragment) getChildFragmentManager()
@@ -82,6 +149,51 @@ public class MapFragment extends Fragment implements OnMapReadyCallback, GoogleM
     @Override
     public void onMapReady(GoogleMap googleMap) {
         mMap = googleMap;
+        userMarkers = new UserMarkerLayer(mMap, requireContext());
+        routeRenderer = new RouteRenderer(mMap);
+        clusterer = new MarkerClusterer(new MarkerClusterer.Listener() {
+            @Override
+            public void onClustersChanged(MarkerClusterer.Result result) {
+                if (userMarkers != null) {
+                    userMarkers.applyClusters(result);
+                }
+            }
+        });
+        mMap.setOnCameraIdleListener(new GoogleMap.OnCameraIdleListener() {
+            @Override
+            public void onCameraIdle() {
+                mainHandler.removeCallbacks(reclusterRunnable);
+                refreshViewport();
+                routeRenderer.onCameraIdle(mMap.getCameraPosition().zoom,
+                        mMap.getProjection().getVisibleRegion().latLngBounds);
+            }
+        });
+        mMap.setOnMarkerClickListener(new GoogleMap.OnMarkerClickListener() {
+            @Override
+            public boolean onMarkerClick(@NonNull Marker marker) {
+                if (marker.getTag() instanceof MarkerClusterer.Cluster) {
+                    // Zoom into the cluster so its members split apart
+                    mMap.animateCamera(CameraUpdateFactory.newLatLngZoom(marker.getPosition(),
+                            mMap.getCameraPosition().zoom + 2));
+                    return true;
+                }
+                return false;
+            }
+        });
+        mMap.setOnInfoWindowClickListener(this);
+        mMap.setOnInfoWindowLongClickListener(new GoogleMap.OnInfoWindowLongClickListener() {
+            @Override
+            public void onInfoWindowLongClick(@NonNull Marker marker) {
+                if (marker.getTag() instanceof String) {
+                    startPlayback((String) marker.getTag(), marker.getTitle());
+                }
+            }
+        });
+        renderCachedPresence();
+        showOwnRoute();
+        if (isStarted()) {
+            refreshLastSeen();
+        }
 
         // ...
         if (ContextCompat.checkSelfPermission(requireContext(), Manifest.permission.ACCESS_FINE_LOCATION)
@@ -127,111 +239,409 @@ public class MapFragment extends Fragment implements OnMapReadyCallback, GoogleM
             return;
         }
 
-        String currentUserId = mAuth.getCurrentUser().getUid();
-        
-        // Load current user's data
-        loadCurrentUserData(currentUserId);
+        currentUserId = mAuth.getCurrentUser().getUid();
+        if (presenceListener != null) {
+            presenceListener.stop();
+        }
         
-        // Load trusted contacts
-        loadTrustedContacts(currentUserId);
+        // Current user and every contact in the circle stay live while the map is visible
+        presenceListener = new ContactPresenceListener(db, currentUserId, new ContactPresenceListener.Callback() {
+            @Override
+            public void onCurrentUserChanged(DocumentSnapshot document) {
+                if (mMap == null) {
+                    return;
+                }
+                updateCurrentUserMarker(document);
+                hideProgressBar();
+            }
+
+            @Override
+            public void onContactsChanged(List<ContactPresence> contacts) {
+                if (mMap == null) {
+                    return;
+                }
+                boolean added = false;
+                for (ContactPresence contact : contacts) {
+                    added |= !contactPositions.contains(contact.userId);
+                    updateContact(contact);
+                }
+                // New contacts may need markers; moves only change the clustering
+                if (added) {
+                    refreshViewport();
+                } else {
+                    scheduleRecluster();
+                }
+                hideProgressBar();
+            }
+
+            @Override
+            public void onContactSetChanged(Set<String> contactIds) {
+                if (userMarkers == null) {
+                    return;
+                }
+                dropRemovedContacts(contactIds);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                showError("Failed to load locations");
+            }
+        });
+        if (isStarted()) {
+            presenceListener.start();
+        }
     }
 
-    private void loadCurrentUserData(String userId) {
-        db.collection("users").document(userId)
-                .get()
-                .addOnCompleteListener(new OnCompleteListener<DocumentSnapshot>() {
-                    @Override
-                    public void onComplete(@NonNull Task<DocumentSnapshot> task) {
-                        if (task.isSuccessful() && task.getResult() != null) {
-                            DocumentSnapshot document = task.getResult();
-                            if (document.exists()) {
-                                addUserMarker(document, true); // true for current user
-                            }
-                        }
-                        hideProgressBar();
-                    }
-                });
+    private void dropRemovedContacts(Set<String> contactIds) {
+        // Drop contacts that were removed from the circle
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < contactPositions.size(); i++) {
+            if (!contactIds.contains(contactPositions.getId(i))) {
+                removed.add(contactPositions.getId(i));
+            }
+        }
+        for (String userId : removed) {
+            contactPositions.remove(userId);
+            presenceCache.remove(userId);
+            materializedIds.remove(userId);
+            userMarkers.remove(userId);
+            clusterer.remove(userId);
+        }
+        if (!removed.isEmpty()) {
+            refreshViewport();
+        }
+        if (contactIds.isEmpty()) {
+            hideProgressBar();
+        }
     }
 
-    private void loadTrustedContacts(String userId) {
-        db.collection("users").document(userId)
-                .collection("trustedContacts")
-                .get()
-                .addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
-                    @Override
-                    public void onComplete(@NonNull Task<QuerySnapshot> task) {
-                        if (task.isSuccessful()) {
-                            for (DocumentSnapshot document : task.getResult()) {
-                                // Get the trusted contact's user ID
-                                String trustedUserId = document.getString("userId");
-                                if (trustedUserId != null) {
-                                    loadTrustedContactData(trustedUserId);
-                                }
-                            }
-                        }
-                        hideProgressBar();
-                    }
-                });
+    /**
+     * Records a contact's position and updates its marker if it is materialized.
+     */
+    private void updateContact(ContactPresence contact) {
+        if (clusterer == null) {
+            return;
+        }
+        String userId = contact.userId;
+        contactPositions.put(userId, contact.name, contact.latitude, contact.longitude, contact.lastSeen);
+        presenceCache.put(userId, contact.name, contact.latitude, contact.longitude, contact.lastSeen);
+        contactPositions.setAvatar(userId, contact.avatarUrl, contact.avatarVersion);
+        clusterer.update(userId, contact.latitude, contact.longitude);
+        if (materializedIds.contains(userId)) {
+            userMarkers.upsert(userId, new LatLng(contact.latitude, contact.longitude),
+                    contact.name, formatLastSeen(contact.lastSeen), false,
+                    contact.speed, contact.bearing, contact.fixTime);
+            userMarkers.setAvatar(userId, contact.avatarUrl, contact.avatarVersion);
+        }
     }
 
-    private void loadTrustedContactData(String userId) {
-        db.collection("users").document(userId)
-                .get()
-                .addOnCompleteListener(new OnCompleteListener<DocumentSnapshot>() {
-                    @Override
-                    public void onComplete(@NonNull Task<DocumentSnapshot> task) {
-                        if (task.isSuccessful() && task.getResult() != null) {
-                            DocumentSnapshot document = task.getResult();
-                            if (document.exists()) {
-                                addUserMarker(document, false); // false for trusted contact
-                            }
-                        }
-                    }
-                });
+    /**
+     * Materializes markers for contacts inside the visible region plus a margin and removes
+     * the rest.
+     */
+    private void refreshViewport() {
+        if (mMap == null || userMarkers == null) {
+            return;
+        }
+        LatLngBounds bounds = mMap.getProjection().getVisibleRegion().latLngBounds;
+        double latMargin = (bounds.northeast.latitude - bounds.southwest.latitude) * VIEWPORT_MARGIN;
+        double lonSpan = bounds.northeast.longitude - bounds.southwest.longitude;
+        if (lonSpan < 0) {
+            lonSpan += 360;
+        }
+        double south = Math.max(-90, bounds.southwest.latitude - latMargin);
+        double north = Math.min(90, bounds.northeast.latitude + latMargin);
+        double west = -180;
+        double east = 180;
+        if (lonSpan * (1 + 2 * VIEWPORT_MARGIN) < 360) {
+            west = wrapLongitude(bounds.southwest.longitude - lonSpan * VIEWPORT_MARGIN);
+            east = wrapLongitude(bounds.northeast.longitude + lonSpan * VIEWPORT_MARGIN);
+        }
+
+        final List<Integer> inBounds = new ArrayList<>();
+        contactPositions.forEachInBounds(south, west, north, east, new ContactPositionStore.Visitor() {
+            @Override
+            public void visit(int index) {
+                inBounds.add(index);
+            }
+        });
+
+        Set<String> nowMaterialized = new HashSet<>();
+        for (int index : inBounds) {
+            String userId = contactPositions.getId(index);
+            long lastSeen = contactPositions.getLastSeen(index);
+            userMarkers.upsert(userId,
+                    new LatLng(contactPositions.getLatitude(index), contactPositions.getLongitude(index)),
+                    contactPositions.getName(index), formatLastSeen(lastSeen), false);
+            userMarkers.setAvatar(userId, contactPositions.getAvatarUrl(index),
+                    contactPositions.getAvatarVersion(index));
+            nowMaterialized.add(userId);
+        }
+        for (String userId : materializedIds) {
+            if (!nowMaterialized.contains(userId)) {
+                userMarkers.remove(userId);
+            }
+        }
+        materializedIds.clear();
+        materializedIds.addAll(nowMaterialized);
+
+        recluster();
+    }
+
+    private static double wrapLongitude(double longitude) {
+        if (longitude > 180) {
+            return longitude - 360;
+        }
+        if (longitude < -180) {
+            return longitude + 360;
+        }
+        return longitude;
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        if (presenceListener != null) {
+            presenceListener.start();
+        }
+        if (userMarkers != null) {
+            userMarkers.resumeAnimations();
+            refreshLastSeen();
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        // No presence traffic while the map is not visible
+        if (presenceListener != null) {
+            presenceListener.stop();
+        }
+        if (userMarkers != null) {
+            userMarkers.pauseAnimations();
+        }
+        mainHandler.removeCallbacks(lastSeenRefreshRunnable);
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (presenceListener != null) {
+            presenceListener.stop();
+            presenceListener = null;
+        }
+        mainHandler.removeCallbacks(reclusterRunnable);
+        mainHandler.removeCallbacks(lastSeenRefreshRunnable);
+        stopPlayback();
+        if (routeRenderer != null) {
+            routeRenderer.shutdown();
+            routeRenderer = null;
+        }
+        if (clusterer != null) {
+            clusterer.shutdown();
+            clusterer = null;
+        }
+        if (userMarkers != null) {
+            userMarkers.clear();
+            userMarkers = null;
+        }
+        contactPositions.clear();
+        materializedIds.clear();
+        mMap = null;
+    }
+
+    private void scheduleRecluster() {
+        mainHandler.removeCallbacks(reclusterRunnable);
+        mainHandler.postDelayed(reclusterRunnable, RECLUSTER_DELAY_MS);
+    }
+
+    private void recluster() {
+        if (mMap == null || clusterer == null) {
+            return;
+        }
+        clusterer.cluster(mMap.getCameraPosition().zoom,
+                mMap.getProjection().getVisibleRegion().latLngBounds);
+    }
+
+    private boolean isStarted() {
+        return getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED);
     }
 
-    private void addUserMarker(DocumentSnapshot document, boolean isCurrentUser) {
-        GeoPoint lastLocation = document.getGeoPoint("lastLocation");
-        String userName = document.getString("name");
-        Date lastSeen = document.getDate("lastSeen");
-
-        if (lastLocation != null && userName != null) {
-            LatLng latLng = new LatLng(lastLocation.getLatitude(), lastLocation.getLongitude());
-            
-            // Create marker options
-            MarkerOptions markerOptions = new MarkerOptions()
-                    .position(latLng)
-                    .title(userName)
-                    .snippet(formatLastSeen(lastSeen));
-
-            // Use different colors for current user vs trusted contacts
-            if (isCurrentUser) {
-                markerOptions.icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_BLUE));
+    /**
+     * Paints the last known presence from the local cache before any network result, so the
+     * map has markers on cold start and while offline. Live results overwrite these entries
+     * as they arrive, and contacts no longer in the circle are dropped by onContactSetChanged.
+     */
+    private void renderCachedPresence() {
+        if (mAuth.getCurrentUser() == null) {
+            return;
+        }
+        String userId = mAuth.getCurrentUser().getUid();
+        presenceCache = PresenceCache.getInstance(requireContext(), userId);
+        List<PresenceCache.Entry> entries = presenceCache.getAll();
+        for (PresenceCache.Entry entry : entries) {
+            if (entry.userId.equals(userId)) {
+                showCurrentUser(entry.userId, entry.name, entry.latitude, entry.longitude,
+                        entry.lastSeen, -1, -1, -1);
             } else {
-                markerOptions.icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_RED));
+                contactPositions.put(entry.userId, entry.name, entry.latitude, entry.longitude, entry.lastSeen);
+                clusterer.update(entry.userId, entry.latitude, entry.longitude);
             }
+        }
+        if (!entries.isEmpty()) {
+            hideProgressBar();
+            refreshViewport();
+        }
+    }
+
+    private void updateCurrentUserMarker(DocumentSnapshot document) {
+        ContactPresence self = ContactPresence.from(document);
+        if (self != null) {
+            showCurrentUser(self.userId, self.name, self.latitude, self.longitude,
+                    self.lastSeen, self.speed, self.bearing, self.fixTime);
+            userMarkers.setAvatar(self.userId, self.avatarUrl, self.avatarVersion);
+            presenceCache.put(self.userId, self.name, self.latitude, self.longitude, self.lastSeen);
+        }
+    }
+
+    private void showCurrentUser(String userId, String userName, double latitude, double longitude,
+                                 long lastSeen, double speed, double bearing, long fixTime) {
+        LatLng latLng = new LatLng(latitude, longitude);
+        currentUserLastSeen = lastSeen;
+        userMarkers.upsert(userId, latLng, userName, formatLastSeen(lastSeen), true, speed, bearing, fixTime);
+
+        // Move camera to the current user the first time they appear
+        if (!cameraPositioned) {
+            cameraPositioned = true;
+            mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(latLng, 12));
+        }
+    }
+
+    private void showOwnRoute() {
+        long now = System.currentTimeMillis();
+        RouteLoader.loadOwn(requireContext(), now - ROUTE_HISTORY_MS, now)
+                .addOnSuccessListener(points -> {
+                    if (routeRenderer != null && points.size() > 1) {
+                        routeRenderer.setRoute(OWN_ROUTE_ID, points, OWN_ROUTE_COLOR);
+                    }
+                })
+                .addOnFailureListener(e -> Log.e(TAG, "Error loading own route", e));
+    }
 
-            // Add marker to map
-            Marker marker = mMap.addMarker(markerOptions);
-            if (marker != null) {
-                marker.setTag(document.getId());
-                userMarkers.put(document.getId(), marker);
+    /**
+     * Shows or hides a contact's route for the last day.
+     */
+    private void toggleContactRoute(final String userId, String name) {
+        if (routeRenderer.hasRoute(userId)) {
+            routeRenderer.removeRoute(userId);
+            return;
+        }
+        Toast.makeText(requireContext(), "Loading route for " + name, Toast.LENGTH_SHORT).show();
+        long now = System.currentTimeMillis();
+        RouteLoader.loadContact(db, userId, now - ROUTE_HISTORY_MS, now)
+                .addOnSuccessListener(points -> {
+                    if (routeRenderer == null) {
+                        return;
+                    }
+                    if (points.size() > 1) {
+                        routeRenderer.setRoute(userId, points, CONTACT_ROUTE_COLOR);
+                    } else if (getContext() != null) {
+                        Toast.makeText(getContext(), "No recent route for " + name, Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .addOnFailureListener(e -> Log.e(TAG, "Error loading route", e));
+    }
+
+    /**
+     * Opens the history scrubber for a user over the last day, starting at the newest fix.
+     * Only the history windows the scrubber touches are loaded (see HistoryPlayback).
+     */
+    private void startPlayback(String userId, String name) {
+        stopPlayback();
+        long now = System.currentTimeMillis();
+        playbackStart = now - ROUTE_HISTORY_MS;
+        playbackTimeFormat = android.text.format.DateFormat.getTimeFormat(requireContext());
+        HistoryPlayback.Source source = userId.equals(currentUserId)
+                ? HistoryPlayback.ownSource(requireContext())
+                : HistoryPlayback.contactSource(db, userId);
+        playback = new HistoryPlayback(source, new HistoryPlayback.Listener() {
+            @Override
+            public void onPosition(long time, double latitude, double longitude) {
+                if (mMap == null) {
+                    return;
+                }
+                LatLng position = new LatLng(latitude, longitude);
+                if (playbackMarker == null) {
+                    playbackMarker = mMap.addMarker(new MarkerOptions()
+                            .position(position)
+                            .zIndex(1)
+                            .icon(MarkerIconCache.getInstance(requireContext())
+                                    .defaultMarker(BitmapDescriptorFactory.HUE_VIOLET)));
+                } else {
+                    playbackMarker.setPosition(position);
+                }
+                playbackTime.setText(playbackTimeFormat.format(new Date(time)));
             }
 
-            // Move camera to first marker (current user)
-            if (isCurrentUser) {
-                mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(latLng, 12));
+            @Override
+            public void onNoData(long time) {
+                playbackTime.setText(playbackTimeFormat.format(new Date(time)) + " (no data)");
             }
+        });
+        playbackTitle.setText("History: " + name);
+        playbackSeekBar.setMax((int) (ROUTE_HISTORY_MS / PLAYBACK_STEP_MS));
+        playbackBar.setVisibility(View.VISIBLE);
+        playbackSeekBar.setProgress(playbackSeekBar.getMax());
+        playback.seek(playbackStart + playbackSeekBar.getMax() * PLAYBACK_STEP_MS);
+    }
+
+    private void stopPlayback() {
+        if (playback != null) {
+            playback.release();
+            playback = null;
+        }
+        if (playbackMarker != null) {
+            playbackMarker.remove();
+            playbackMarker = null;
         }
+        if (playbackBar != null) {
+            playbackBar.setVisibility(View.GONE);
+        }
+    }
+
+    private static String formatLastSeen(long lastSeen) {
+        return LastSeenFormatter.formatLastSeen(lastSeen, System.currentTimeMillis());
     }
 
-    private String formatLastSeen(Date lastSeen) {
-        if (lastSeen == null) {
-            return "Last seen: Never";
+    /**
+     * Re-renders the relative "last seen" snippets of all materialized markers, then schedules
+     * itself for the next time any of them changes. One timer serves every marker.
+     */
+    private void refreshLastSeen() {
+        mainHandler.removeCallbacks(lastSeenRefreshRunnable);
+        if (userMarkers == null) {
+            return;
         }
-        
-        SimpleDateFormat sdf = new SimpleDateFormat("MMM dd, yyyy HH:mm", Locale.getDefault());
-        return "Last seen: " + sdf.format(lastSeen);
+        long now = System.currentTimeMillis();
+        long nextChange = LAST_SEEN_REFRESH_MAX_MS;
+        for (String userId : materializedIds) {
+            int index = contactPositions.indexOf(userId);
+            if (index < 0) {
+                continue;
+            }
+            long lastSeen = contactPositions.getLastSeen(index);
+            userMarkers.setSnippet(userId, LastSeenFormatter.formatLastSeen(lastSeen, now));
+            if (lastSeen >= 0) {
+                nextChange = Math.min(nextChange, LastSeenFormatter.millisUntilChange(lastSeen, now));
+            }
+        }
+        if (currentUserId != null) {
+            userMarkers.setSnippet(currentUserId, LastSeenFormatter.formatLastSeen(currentUserLastSeen, now));
+            if (currentUserLastSeen >= 0) {
+                nextChange = Math.min(nextChange, LastSeenFormatter.millisUntilChange(currentUserLastSeen, now));
+            }
+        }
+        mainHandler.postDelayed(lastSeenRefreshRunnable, Math.max(1000, nextChange));
     }
 
     private void hideProgressBar() {
@@ -250,11 +660,12 @@ public class MapFragment extends Fragment implements OnMapReadyCallback, GoogleM
 
     @Override
     public void onInfoWindowClick(@NonNull Marker marker) {
-        // Handle info window click if needed
-        String userId = (String) marker.getTag();
-        if (userId != null) {
-            Toast.makeText(requireContext(), "Clicked on " + marker.getTitle(), 
-                    Toast.LENGTH_SHORT).show();
+        // Cluster markers carry a Cluster tag instead of a user ID
+        if (marker.getTag() instanceof String && routeRenderer != null) {
+            String userId = (String) marker.getTag();
+            if (!userId.equals(currentUserId)) {
+                toggleContactRoute(userId, marker.getTitle());
+            }
         }
     }
 }
@@ -0,0 +1,251 @@
+package com.example.securetrack;
+
+import android.view.Choreographer;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Moves markers smoothly between position updates.
+ * A new fix is not applied with a jump: the marker eases from where it is drawn towards the
+ * fix over {@link #TRANSITION_MS}. When the fix carries a speed and heading, the target itself
+ * keeps moving along that heading (dead reckoning) for up to {@link #MAX_EXTRAPOLATION_MS}
+ * after the fix was taken, so a contact uploading once a minute still appears to travel.
+ * All markers are advanced from one Choreographer frame callback, which is only posted while
+ * something is moving. Per-marker state lives in parallel primitive arrays, so a frame
+ * allocates nothing beyond the LatLng that Marker.setPosition requires. Main thread only.
+ */
+public class MarkerAnimator implements Choreographer.FrameCallback {
+
+    private static final long TRANSITION_MS = 1000;
+    private static final long MAX_EXTRAPOLATION_MS = 60 * 1000;
+    // Below walking pace the reported speed is mostly noise
+    private static final float MIN_EXTRAPOLATION_SPEED = 0.5f;
+    // Skip setPosition for sub-centimeter moves
+    private static final double MIN_STEP_DEGREES = 1e-7;
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final Map<String, Integer> indexById = new HashMap<>();
+    private String[] ids = new String[16];
+    private Marker[] markers = new Marker[16];
+    private double[] fromLat = new double[16];
+    private double[] fromLon = new double[16];
+    private double[] targetLat = new double[16];
+    private double[] targetLon = new double[16];
+    private double[] drawnLat = new double[16];
+    private double[] drawnLon = new double[16];
+    // Meters per second along the heading, north and east components
+    private double[] velocityNorth = new double[16];
+    private double[] velocityEast = new double[16];
+    private long[] fixTime = new long[16];
+    private long[] transitionStart = new long[16];
+    private boolean[] moving = new boolean[16];
+    private int size = 0;
+    private int movingCount = 0;
+
+    private boolean frameScheduled = false;
+    private boolean paused = false;
+
+    /**
+     * Moves a marker towards a new fix. Repeating the current target is a no-op, so callers can
+     * pass positions they already applied.
+     *
+     * @param speed Meters per second, or a negative value if unknown
+     * @param bearing Degrees clockwise from north, or a negative value if unknown
+     * @param fixTimeMillis When the fix was taken, or -1 to disable extrapolation
+     */
+    public void animateTo(String userId, Marker marker, double latitude, double longitude,
+                          double speed, double bearing, long fixTimeMillis) {
+        Integer existing = indexById.get(userId);
+        int index;
+        if (existing != null) {
+            index = existing;
+            if (targetLat[index] == latitude && targetLon[index] == longitude
+                    && markers[index] == marker) {
+                return;
+            }
+        } else {
+            index = allocate(userId);
+            LatLng position = marker.getPosition();
+            drawnLat[index] = position.latitude;
+            drawnLon[index] = position.longitude;
+        }
+        long now = System.currentTimeMillis();
+        markers[index] = marker;
+        fromLat[index] = drawnLat[index];
+        fromLon[index] = drawnLon[index];
+        targetLat[index] = latitude;
+        targetLon[index] = longitude;
+        transitionStart[index] = now;
+        fixTime[index] = fixTimeMillis;
+        if (speed >= MIN_EXTRAPOLATION_SPEED && bearing >= 0 && fixTimeMillis > 0
+                && now - fixTimeMillis < MAX_EXTRAPOLATION_MS) {
+            double radians = Math.toRadians(bearing);
+            velocityNorth[index] = speed * Math.cos(radians);
+            velocityEast[index] = speed * Math.sin(radians);
+        } else {
+            velocityNorth[index] = 0;
+            velocityEast[index] = 0;
+        }
+        if (!moving[index]) {
+            moving[index] = true;
+            movingCount++;
+        }
+        scheduleFrame();
+    }
+
+    /**
+     * Places a marker without animating, e.g. while it is hidden in a cluster.
+     */
+    public void jumpTo(String userId, Marker marker, double latitude, double longitude) {
+        remove(userId);
+        LatLng position = marker.getPosition();
+        if (position.latitude != latitude || position.longitude != longitude) {
+            marker.setPosition(new LatLng(latitude, longitude));
+        }
+    }
+
+    public void remove(String userId) {
+        Integer index = indexById.remove(userId);
+        if (index != null) {
+            removeAt(index);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(ids, 0, size, null);
+        Arrays.fill(markers, 0, size, null);
+        Arrays.fill(moving, 0, size, false);
+        indexById.clear();
+        size = 0;
+        movingCount = 0;
+        pause();
+        paused = false;
+    }
+
+    /**
+     * Stops frame callbacks, e.g. while the map is not visible. Markers continue from their
+     * current target on resume().
+     */
+    public void pause() {
+        paused = true;
+        if (frameScheduled) {
+            choreographer.removeFrameCallback(this);
+            frameScheduled = false;
+        }
+    }
+
+    public void resume() {
+        paused = false;
+        scheduleFrame();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            if (!moving[i]) {
+                continue;
+            }
+            // Target, pushed forward along the heading since the fix was taken
+            double latitude = targetLat[i];
+            double longitude = targetLon[i];
+            boolean extrapolating = false;
+            if (velocityNorth[i] != 0 || velocityEast[i] != 0) {
+                long elapsed = now - fixTime[i];
+                if (elapsed > 0) {
+                    double seconds = Math.min(elapsed, MAX_EXTRAPOLATION_MS) / 1000.0;
+                    latitude += velocityNorth[i] * seconds / GeoMath.METERS_PER_DEGREE;
+                    longitude += velocityEast[i] * seconds / GeoMath.metersPerDegreeLongitude(latitude);
+                    extrapolating = elapsed < MAX_EXTRAPOLATION_MS;
+                }
+            }
+
+            // Ease out of the previously drawn position onto the moving target
+            double progress = Math.min(1.0, (now - transitionStart[i]) / (double) TRANSITION_MS);
+            double eased = 1 - (1 - progress) * (1 - progress);
+            latitude = fromLat[i] + (latitude - fromLat[i]) * eased;
+            longitude = fromLon[i] + (longitude - fromLon[i]) * eased;
+
+            if (Math.abs(latitude - drawnLat[i]) > MIN_STEP_DEGREES
+                    || Math.abs(longitude - drawnLon[i]) > MIN_STEP_DEGREES) {
+                drawnLat[i] = latitude;
+                drawnLon[i] = longitude;
+                markers[i].setPosition(new LatLng(latitude, longitude));
+            }
+
+            if (progress >= 1 && !extrapolating) {
+                // Settled; the entry stays so repeating this target does not pull the marker
+                // back from its extrapolated position
+                moving[i] = false;
+                movingCount--;
+            }
+        }
+        scheduleFrame();
+    }
+
+    private void scheduleFrame() {
+        if (!frameScheduled && !paused && movingCount > 0) {
+            frameScheduled = true;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    private int allocate(String userId) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            markers = Arrays.copyOf(markers, capacity);
+            fromLat = Arrays.copyOf(fromLat, capacity);
+            fromLon = Arrays.copyOf(fromLon, capacity);
+            targetLat = Arrays.copyOf(targetLat, capacity);
+            targetLon = Arrays.copyOf(targetLon, capacity);
+            drawnLat = Arrays.copyOf(drawnLat, capacity);
+            drawnLon = Arrays.copyOf(drawnLon, capacity);
+            velocityNorth = Arrays.copyOf(velocityNorth, capacity);
+            velocityEast = Arrays.copyOf(velocityEast, capacity);
+            fixTime = Arrays.copyOf(fixTime, capacity);
+            transitionStart = Arrays.copyOf(transitionStart, capacity);
+            moving = Arrays.copyOf(moving, capacity);
+        }
+        int index = size++;
+        ids[index] = userId;
+        indexById.put(userId, index);
+        return index;
+    }
+
+    /**
+     * Drops slot {@code index} by moving the last slot into it. The caller has already removed
+     * the ID from indexById.
+     */
+    private void removeAt(int index) {
+        if (moving[index]) {
+            movingCount--;
+        }
+        int last = --size;
+        if (index != last) {
+            ids[index] = ids[last];
+            markers[index] = markers[last];
+            fromLat[index] = fromLat[last];
+            fromLon[index] = fromLon[last];
+            targetLat[index] = targetLat[last];
+            targetLon[index] = targetLon[last];
+            drawnLat[index] = drawnLat[last];
+            drawnLon[index] = drawnLon[last];
+            velocityNorth[index] = velocityNorth[last];
+            velocityEast[index] = velocityEast[last];
+            fixTime[index] = fixTime[last];
+            transitionStart[index] = transitionStart[last];
+            moving[index] = moving[last];
+            indexById.put(ids[index], index);
+        }
+        ids[last] = null;
+        markers[last] = null;
+        moving[last] = false;
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.securetrack;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Distance-based marker clustering computed off the main thread.
+ * Contact positions live in a PointQuadTree in Web Mercator world coordinates, owned by a
+ * single worker thread; position updates are applied incrementally as they arrive. For a
+ * zoom level, every visible point not yet claimed seeds a cluster that absorbs the unclaimed
+ * points within a fixed on-screen radius, found with a quadtree range search. The result is
+ * delivered on the main thread as the cluster key of every visible user, so the map only has
+ * to touch markers whose membership changed. Cluster keys carry {@link #CLUSTER_KEY_PREFIX}
+ * so they never collide with a user ID, including the seed's own.
+ */
+public class MarkerClusterer {
+
+    // On-screen radius, in dp, within which markers merge into a cluster
+    private static final double CLUSTER_RADIUS_DP = 48;
+    private static final double TILE_SIZE_DP = 256;
+
+    public static final String CLUSTER_KEY_PREFIX = "c:";
+
+    /**
+     * Cluster assignment for one zoom level.
+     */
+    public static class Result {
+        // Cluster key of every user; a user that is alone is its own key
+        public final Map<String, String> clusterKeyByUser;
+        // Every cluster with more than one member
+        public final Map<String, Cluster> clusters;
+
+        Result(Map<String, String> clusterKeyByUser, Map<String, Cluster> clusters) {
+            this.clusterKeyByUser = clusterKeyByUser;
+            this.clusters = clusters;
+        }
+
+        /**
+         * Whether the user is drawn as part of a cluster badge rather than its own marker.
+         */
+        public boolean isClustered(String userId) {
+            String key = clusterKeyByUser.get(userId);
+            return key != null && clusters.containsKey(key);
+        }
+    }
+
+    public static class Cluster {
+        public final double latitude;
+        public final double longitude;
+        public final int size;
+
+        Cluster(double latitude, double longitude, int size) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.size = size;
+        }
+    }
+
+    public interface Listener {
+        void onClustersChanged(Result result);
+    }
+
+    private final ExecutorService worker;
+    private final Executor delivery;
+    private final Listener listener;
+
+    // Worker-thread state
+    private final PointQuadTree tree = new PointQuadTree();
+    private final Map<String, Integer> indexByUser = new HashMap<>();
+    private String[] users = new String[64];
+    private double[] xs = new double[64];
+    private double[] ys = new double[64];
+    private double[] latitudes = new double[64];
+    private double[] longitudes = new double[64];
+    private int[] freeIndices = new int[0];
+    private int freeCount = 0;
+    private int nextIndex = 0;
+    private int[] claimedBy = new int[64];
+    // Incremented per cluster run so the claim marks never need clearing
+    private int runStamp = 0;
+    private int[] claimedRun = new int[64];
+    private int[] visible = new int[64];
+    private int visibleCount = 0;
+
+    // Main-thread state
+    private int requestedGeneration = 0;
+
+    public MarkerClusterer(Listener listener) {
+        this(listener, Executors.newSingleThreadExecutor(), new Executor() {
+            private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        });
+    }
+
+    MarkerClusterer(Listener listener, ExecutorService worker, Executor delivery) {
+        this.listener = listener;
+        this.worker = worker;
+        this.delivery = delivery;
+    }
+
+    /**
+     * Adds or moves a user's point.
+     */
+    public void update(final String userId, final double latitude, final double longitude) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                Integer index = indexByUser.get(userId);
+                if (index != null) {
+                    if (latitudes[index] == latitude && longitudes[index] == longitude) {
+                        return;
+                    }
+                    tree.remove(index, xs[index], ys[index]);
+                } else {
+                    index = allocate(userId);
+                }
+                latitudes[index] = latitude;
+                longitudes[index] = longitude;
+                xs[index] = (longitude + 180) / 360;
+                ys[index] = mercatorY(latitude);
+                tree.insert(index, xs[index], ys[index]);
+            }
+        });
+    }
+
+    public void remove(final String userId) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                Integer index = indexByUser.remove(userId);
+                if (index != null) {
+                    tree.remove(index, xs[index], ys[index]);
+                    users[index] = null;
+                    if (freeCount == freeIndices.length) {
+                        freeIndices = Arrays.copyOf(freeIndices, Math.max(8, freeCount * 2));
+                    }
+                    freeIndices[freeCount++] = index;
+                }
+            }
+        });
+    }
+
+    /**
+     * Recomputes clusters for a zoom level and viewport. Only points inside the viewport seed
+     * clusters, so the work scales with what is on screen. Results of superseded requests are
+     * discarded.
+     *
+     * @param zoom Camera zoom
+     * @param bounds Visible region; users outside it are left out of the result
+     */
+    public void cluster(final float zoom, final LatLngBounds bounds) {
+        final int generation = ++requestedGeneration;
+        final double minX = (bounds.southwest.longitude + 180) / 360;
+        final double maxX = (bounds.northeast.longitude + 180) / 360;
+        final double minY = mercatorY(bounds.northeast.latitude);
+        final double maxY = mercatorY(bounds.southwest.latitude);
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Result result = minX <= maxX
+                        ? compute(zoom, minX, minY, maxX, maxY)
+                        // Viewport crosses the antimeridian: cover the full width
+                        : compute(zoom, 0, minY, 1, maxY);
+                delivery.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == requestedGeneration) {
+                            listener.onClustersChanged(result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    public void shutdown() {
+        requestedGeneration++;
+        worker.shutdownNow();
+    }
+
+    Result compute(float zoom, double minX, double minY, double maxX, double maxY) {
+        // Map tiles are 256dp at zoom 0, so the radius in world units (the unit square) is:
+        final double radius = CLUSTER_RADIUS_DP / (TILE_SIZE_DP * Math.pow(2, zoom));
+        final int run = ++runStamp;
+        final Map<String, String> keyByUser = new HashMap<>();
+        final Map<String, Cluster> clusters = new HashMap<>();
+
+        // Points on screen, padded by one radius so edge clusters keep their members
+        visibleCount = 0;
+        tree.search(minX - radius, minY - radius, maxX + radius, maxY + radius,
+                new PointQuadTree.Visitor() {
+                    @Override
+                    public void visit(int id, double x, double y) {
+                        if (visibleCount == visible.length) {
+                            visible = Arrays.copyOf(visible, visibleCount * 2);
+                        }
+                        visible[visibleCount++] = id;
+                    }
+                });
+
+        for (int i = 0; i < visibleCount; i++) {
+            final int seed = visible[i];
+            if (claimedRun[seed] == run) {
+                continue;
+            }
+            final double[] sums = new double[3]; // latitude, longitude, count
+            tree.search(xs[seed] - radius, ys[seed] - radius, xs[seed] + radius, ys[seed] + radius,
+                    new PointQuadTree.Visitor() {
+                        @Override
+                        public void visit(int id, double x, double y) {
+                            if (claimedRun[id] == run) {
+                                return;
+                            }
+                            claimedRun[id] = run;
+                            claimedBy[id] = seed;
+                            sums[0] += latitudes[id];
+                            sums[1] += longitudes[id];
+                            sums[2]++;
+                        }
+                    });
+            int size = (int) sums[2];
+            if (size > 1) {
+                clusters.put(CLUSTER_KEY_PREFIX + users[seed], new Cluster(sums[0] / size, sums[1] / size, size));
+            }
+        }
+        for (int i = 0; i < visibleCount; i++) {
+            int index = visible[i];
+            String key = CLUSTER_KEY_PREFIX + users[claimedBy[index]];
+            keyByUser.put(users[index], clusters.containsKey(key) ? key : users[index]);
+        }
+        return new Result(keyByUser, clusters);
+    }
+
+    private static double mercatorY(double latitude) {
+        double sin = Math.sin(Math.toRadians(latitude));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    private int allocate(String userId) {
+        int index;
+        if (freeCount > 0) {
+            index = freeIndices[--freeCount];
+        } else {
+            index = nextIndex++;
+            if (index == users.length) {
+                int capacity = users.length * 2;
+                users = Arrays.copyOf(users, capacity);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+                claimedBy = Arrays.copyOf(claimedBy, capacity);
+                claimedRun = Arrays.copyOf(claimedRun, capacity);
+            }
+        }
+        users[index] = userId;
+        indexByUser.put(userId, index);
+        return index;
+    }
+}
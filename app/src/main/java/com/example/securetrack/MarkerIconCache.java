@@ -0,0 +1,310 @@
+package com.example.securetrack;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide cache of marker icons.
+ * Holds the default pin descriptors, cluster count icons and contact avatars, so reopening
+ * the map or refreshing markers reuses already decoded bitmaps. Avatars are keyed by user
+ * and avatar version, downloaded and decoded on a small background pool, downsampled with
+ * inSampleSize to marker size before being cropped to a circle, and kept in an LruCache
+ * bounded by bitmap bytes. A failed load is reported to its callbacks and remembered for
+ * a short while, so a broken URL is not downloaded again on every presence update.
+ * The cache shrinks or empties itself in onTrimMemory.
+ * Icon getters must be called on the main thread; avatar callbacks are delivered there.
+ */
+public class MarkerIconCache {
+    private static final String TAG = "MarkerIconCache";
+
+    private static final int AVATAR_DP = 44;
+    private static final int CLUSTER_ICON_DP = 40;
+    private static final int MAX_AVATAR_DOWNLOAD_BYTES = 2 * 1024 * 1024;
+    private static final int TIMEOUT_MS = 15000;
+    // How long a failed avatar is reported as failed without trying to load it again
+    private static final long FAILED_AVATAR_RETRY_MS = 60000;
+
+    private static MarkerIconCache instance;
+
+    public interface AvatarCallback {
+        void onAvatarReady(String key, BitmapDescriptor icon);
+
+        /**
+         * The avatar could not be downloaded or decoded; requesting it again may succeed.
+         */
+        void onAvatarFailed(String key);
+    }
+
+    private static final class Icon {
+        final Bitmap bitmap;
+        final BitmapDescriptor descriptor;
+
+        Icon(Bitmap bitmap, BitmapDescriptor descriptor) {
+            this.bitmap = bitmap;
+            this.descriptor = descriptor;
+        }
+    }
+
+    private final float density;
+    private final LruCache<String, Icon> icons;
+    private final Map<Float, BitmapDescriptor> defaultMarkers = new HashMap<>();
+    private final Map<String, List<AvatarCallback>> pendingAvatars = new HashMap<>();
+    // Uptime at which each recently failed avatar may be loaded again
+    private final Map<String, Long> failedAvatars = new HashMap<>();
+    private final ExecutorService decoder = Executors.newFixedThreadPool(2);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public static synchronized MarkerIconCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new MarkerIconCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MarkerIconCache(Context context) {
+        density = context.getResources().getDisplayMetrics().density;
+        // An eighth of the heap comfortably holds a few hundred marker-sized bitmaps
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        icons = new LruCache<String, Icon>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Icon icon) {
+                return icon.bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Cache key of one version of a user's avatar.
+     */
+    public static String avatarKey(String userId, String avatarUrl, long avatarVersion) {
+        return "avatar:" + userId + ":" + (avatarVersion >= 0 ? avatarVersion : avatarUrl.hashCode());
+    }
+
+    public BitmapDescriptor defaultMarker(float hue) {
+        BitmapDescriptor descriptor = defaultMarkers.get(hue);
+        if (descriptor == null) {
+            descriptor = BitmapDescriptorFactory.defaultMarker(hue);
+            defaultMarkers.put(hue, descriptor);
+        }
+        return descriptor;
+    }
+
+    /**
+     * Round badge showing a cluster size label, drawn once per label.
+     */
+    public BitmapDescriptor clusterIcon(String label) {
+        String key = "cluster:" + label;
+        Icon icon = icons.get(key);
+        if (icon != null) {
+            return icon.descriptor;
+        }
+        int px = Math.round(CLUSTER_ICON_DP * density);
+        Bitmap bitmap = Bitmap.createBitmap(px, px, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.WHITE);
+        canvas.drawCircle(px / 2f, px / 2f, px / 2f, paint);
+        paint.setColor(Color.rgb(211, 47, 47));
+        canvas.drawCircle(px / 2f, px / 2f, px / 2f - 2 * density, paint);
+        paint.setColor(Color.WHITE);
+        paint.setTextAlign(Paint.Align.CENTER);
+        paint.setFakeBoldText(true);
+        paint.setTextSize((label.length() > 3 ? 11 : 14) * density);
+        float baseline = px / 2f - (paint.descent() + paint.ascent()) / 2;
+        canvas.drawText(label, px / 2f, baseline, paint);
+        icon = new Icon(bitmap, BitmapDescriptorFactory.fromBitmap(bitmap));
+        icons.put(key, icon);
+        return icon.descriptor;
+    }
+
+    /**
+     * Returns a cached avatar icon, or null after starting a background load that reports to
+     * {@code callback}. Concurrent requests for the same key share one download. A key that
+     * failed within the last minute is reported as failed again without a download.
+     */
+    public BitmapDescriptor getAvatar(final String key, final String url, final AvatarCallback callback) {
+        Icon icon = icons.get(key);
+        if (icon != null) {
+            return icon.descriptor;
+        }
+        Long retryAt = failedAvatars.get(key);
+        if (retryAt != null) {
+            if (SystemClock.uptimeMillis() < retryAt) {
+                // Posted so the caller has finished recording the request first
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onAvatarFailed(key);
+                    }
+                });
+                return null;
+            }
+            failedAvatars.remove(key);
+        }
+        List<AvatarCallback> waiting = pendingAvatars.get(key);
+        if (waiting != null) {
+            waiting.add(callback);
+            return null;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(callback);
+        pendingAvatars.put(key, waiting);
+
+        final int sizePx = Math.round(AVATAR_DP * density);
+        decoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = loadAvatar(url, sizePx);
+                // BitmapDescriptorFactory is only used on the main thread
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        List<AvatarCallback> callbacks = pendingAvatars.remove(key);
+                        if (callbacks == null) {
+                            return;
+                        }
+                        if (bitmap == null) {
+                            failedAvatars.put(key, SystemClock.uptimeMillis() + FAILED_AVATAR_RETRY_MS);
+                            for (AvatarCallback waitingCallback : callbacks) {
+                                waitingCallback.onAvatarFailed(key);
+                            }
+                            return;
+                        }
+                        Icon loaded = new Icon(bitmap, BitmapDescriptorFactory.fromBitmap(bitmap));
+                        icons.put(key, loaded);
+                        for (AvatarCallback waitingCallback : callbacks) {
+                            waitingCallback.onAvatarReady(key, loaded.descriptor);
+                        }
+                    }
+                });
+            }
+        });
+        return null;
+    }
+
+    /**
+     * Releases cached bitmaps according to a ComponentCallbacks2 trim level.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            icons.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            icons.trimToSize(icons.maxSize() / 2);
+        }
+    }
+
+    private static Bitmap loadAvatar(String url, int sizePx) {
+        byte[] data;
+        try {
+            data = download(url);
+        } catch (IOException e) {
+            Log.w(TAG, "Error downloading avatar", e);
+            return null;
+        }
+        if (data == null) {
+            return null;
+        }
+
+        // Read the dimensions first so the full-size image is never decoded
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (Math.min(options.outWidth, options.outHeight) / (sampleSize * 2) >= sizePx) {
+            sampleSize *= 2;
+        }
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (decoded == null) {
+            return null;
+        }
+        Bitmap avatar = toCircle(decoded, sizePx);
+        decoded.recycle();
+        return avatar;
+    }
+
+    private static byte[] download(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    if (out.size() > MAX_AVATAR_DOWNLOAD_BYTES) {
+                        Log.w(TAG, "Avatar too large: " + url);
+                        return null;
+                    }
+                }
+                return out.toByteArray();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Center-crops and scales a bitmap into a white-ringed circle of the given size.
+     */
+    private static Bitmap toCircle(Bitmap source, int sizePx) {
+        Bitmap output = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(output);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        float radius = sizePx / 2f;
+        paint.setColor(Color.WHITE);
+        canvas.drawCircle(radius, radius, radius, paint);
+
+        float ring = Math.max(2, sizePx / 16f);
+        float inner = sizePx - 2 * ring;
+        float scale = inner / Math.min(source.getWidth(), source.getHeight());
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postTranslate(ring + (inner - source.getWidth() * scale) / 2,
+                ring + (inner - source.getHeight() * scale) / 2);
+        BitmapShader shader = new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        shader.setLocalMatrix(matrix);
+        paint.setShader(shader);
+        canvas.drawCircle(radius, radius, radius - ring, paint);
+        return output;
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.securetrack;
+
+import java.util.Arrays;
+
+/**
+ * Incremental point quadtree over the unit square.
+ * Points are identified by an int id and may be inserted, removed or moved one at a time;
+ * only the nodes along the affected path change. Leaves split once they hold more than
+ * {@link #NODE_CAPACITY} points, and range searches visit only overlapping nodes.
+ * Not thread-safe: the owner must confine it to one thread.
+ */
+public class PointQuadTree {
+
+    private static final int NODE_CAPACITY = 16;
+    private static final int MAX_DEPTH = 24;
+
+    public interface Visitor {
+        void visit(int id, double x, double y);
+    }
+
+    private static final class Node {
+        final double minX;
+        final double minY;
+        final double maxX;
+        final double maxY;
+        final int depth;
+        int[] ids = new int[NODE_CAPACITY];
+        double[] xs = new double[NODE_CAPACITY];
+        double[] ys = new double[NODE_CAPACITY];
+        int size;
+        Node[] children;
+
+        Node(double minX, double minY, double maxX, double maxY, int depth) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.depth = depth;
+        }
+    }
+
+    private Node root = new Node(0, 0, 1, 1, 0);
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public void insert(int id, double x, double y) {
+        insert(root, id, clamp(x), clamp(y));
+        size++;
+    }
+
+    /**
+     * Removes a point; {@code x, y} must be the coordinates it was inserted with.
+     *
+     * @return false if the point was not found
+     */
+    public boolean remove(int id, double x, double y) {
+        if (remove(root, id, clamp(x), clamp(y))) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Visits every point inside the rectangle (inclusive).
+     */
+    public void search(double minX, double minY, double maxX, double maxY, Visitor visitor) {
+        search(root, minX, minY, maxX, maxY, visitor);
+    }
+
+    public void clear() {
+        root = new Node(0, 0, 1, 1, 0);
+        size = 0;
+    }
+
+    private void insert(Node node, int id, double x, double y) {
+        while (node.children != null) {
+            node = node.children[quadrant(node, x, y)];
+        }
+        if (node.size == node.ids.length) {
+            if (node.depth < MAX_DEPTH) {
+                split(node);
+                insert(node, id, x, y);
+                return;
+            }
+            // Many points at the same spot: grow the leaf instead of splitting forever
+            node.ids = Arrays.copyOf(node.ids, node.size * 2);
+            node.xs = Arrays.copyOf(node.xs, node.size * 2);
+            node.ys = Arrays.copyOf(node.ys, node.size * 2);
+        }
+        node.ids[node.size] = id;
+        node.xs[node.size] = x;
+        node.ys[node.size] = y;
+        node.size++;
+    }
+
+    private boolean remove(Node node, int id, double x, double y) {
+        while (node.children != null) {
+            node = node.children[quadrant(node, x, y)];
+        }
+        for (int i = 0; i < node.size; i++) {
+            if (node.ids[i] == id) {
+                int last = node.size - 1;
+                node.ids[i] = node.ids[last];
+                node.xs[i] = node.xs[last];
+                node.ys[i] = node.ys[last];
+                node.size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void split(Node node) {
+        double midX = (node.minX + node.maxX) / 2;
+        double midY = (node.minY + node.maxY) / 2;
+        int depth = node.depth + 1;
+        node.children = new Node[]{
+                new Node(node.minX, node.minY, midX, midY, depth),
+                new Node(midX, node.minY, node.maxX, midY, depth),
+                new Node(node.minX, midY, midX, node.maxY, depth),
+                new Node(midX, midY, node.maxX, node.maxY, depth)
+        };
+        for (int i = 0; i < node.size; i++) {
+            insert(node.children[quadrant(node, node.xs[i], node.ys[i])], node.ids[i], node.xs[i], node.ys[i]);
+        }
+        node.ids = null;
+        node.xs = null;
+        node.ys = null;
+        node.size = 0;
+    }
+
+    private void search(Node node, double minX, double minY, double maxX, double maxY, Visitor visitor) {
+        if (node.maxX < minX || node.minX > maxX || node.maxY < minY || node.minY > maxY) {
+            return;
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                search(child, minX, minY, maxX, maxY, visitor);
+            }
+            return;
+        }
+        for (int i = 0; i < node.size; i++) {
+            double x = node.xs[i];
+            double y = node.ys[i];
+            if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                visitor.visit(node.ids[i], x, y);
+            }
+        }
+    }
+
+    private static int quadrant(Node node, double x, double y) {
+        double midX = (node.minX + node.maxX) / 2;
+        double midY = (node.minY + node.maxY) / 2;
+        return (x < midX ? 0 : 1) + (y < midY ? 0 : 2);
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(1, value));
+    }
+}
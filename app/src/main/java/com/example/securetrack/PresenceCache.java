@@ -0,0 +1,175 @@
+package com.example.securetrack;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Last known presence (name, position, lastSeen) of the users shown on the map, kept across
+ * app restarts so the map can paint before any network round trip.
+ * Entries are held in an access-ordered LinkedHashMap capped at {@link #MAX_ENTRIES}, evicting
+ * the least recently updated user. The cache is per signed-in user and persisted to a small
+ * binary file; writes are coalesced into one delayed write on a background thread shared by
+ * every instance, and the file is replaced atomically so a crash never leaves it half written.
+ */
+public class PresenceCache {
+    private static final String TAG = "PresenceCache";
+
+    private static final int MAGIC = 0x50524331; // "PRC1"
+    private static final int MAX_ENTRIES = 500;
+    private static final long WRITE_DELAY_MS = 2000;
+
+    private static PresenceCache instance;
+    // One writer thread for the process, reused across signed-in users
+    private static Handler writer;
+
+    public static class Entry {
+        public final String userId;
+        public final String name;
+        public final double latitude;
+        public final double longitude;
+        // Epoch millis, or -1 if unknown
+        public final long lastSeen;
+
+        Entry(String userId, String name, double latitude, double longitude, long lastSeen) {
+            this.userId = userId;
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    private final File file;
+    private final String ownerId;
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    private boolean writePending = false;
+
+    private final Runnable writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            List<Entry> snapshot;
+            synchronized (PresenceCache.this) {
+                writePending = false;
+                snapshot = new ArrayList<>(entries.values());
+            }
+            write(snapshot);
+        }
+    };
+
+    /**
+     * Returns the cache of the given signed-in user, loading it from disk on first use.
+     */
+    public static synchronized PresenceCache getInstance(Context context, String userId) {
+        if (writer == null) {
+            HandlerThread thread = new HandlerThread("PresenceCacheWriter");
+            thread.start();
+            writer = new Handler(thread.getLooper());
+        }
+        if (instance == null || !instance.ownerId.equals(userId)) {
+            instance = new PresenceCache(new File(context.getApplicationContext().getFilesDir(),
+                    "presence_" + userId + ".bin"), userId);
+        }
+        return instance;
+    }
+
+    private PresenceCache(File file, String ownerId) {
+        this.file = file;
+        this.ownerId = ownerId;
+        load();
+    }
+
+    public synchronized void put(String userId, String name, double latitude, double longitude, long lastSeen) {
+        Entry previous = entries.get(userId);
+        if (previous != null && previous.latitude == latitude && previous.longitude == longitude
+                && previous.lastSeen == lastSeen && previous.name.equals(name)) {
+            return;
+        }
+        entries.put(userId, new Entry(userId, name, latitude, longitude, lastSeen));
+        scheduleWrite();
+    }
+
+    public synchronized void remove(String userId) {
+        if (entries.remove(userId) != null) {
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Snapshot of all entries, least recently updated first.
+     */
+    public synchronized List<Entry> getAll() {
+        return new ArrayList<>(entries.values());
+    }
+
+    private void scheduleWrite() {
+        if (writePending) {
+            return;
+        }
+        writePending = true;
+        // Changes until the write runs fold into it, so a burst of updates costs one write
+        writer.postDelayed(writeRunnable, WRITE_DELAY_MS);
+    }
+
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                Log.w(TAG, "Ignoring presence cache with unknown format");
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String userId = in.readUTF();
+                entries.put(userId, new Entry(userId, in.readUTF(), in.readDouble(), in.readDouble(),
+                        in.readLong()));
+            }
+        } catch (FileNotFoundException e) {
+            // First run for this user
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading presence cache", e);
+            entries.clear();
+        }
+    }
+
+    private void write(List<Entry> snapshot) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                out.writeUTF(entry.userId);
+                out.writeUTF(entry.name);
+                out.writeDouble(entry.latitude);
+                out.writeDouble(entry.longitude);
+                out.writeLong(entry.lastSeen);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing presence cache", e);
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Error replacing presence cache file");
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.securetrack;
+
+import android.content.Context;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads a time range of history into TrackPoints off the main thread: the current user's
+ * from the local TrackStore, contacts' from their trackBuckets documents.
+ */
+public final class RouteLoader {
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private RouteLoader() {
+    }
+
+    public static Task<TrackPoints> loadOwn(Context context, final long fromTime, final long toTime) {
+        final Context appContext = context.getApplicationContext();
+        return Tasks.call(EXECUTOR, new Callable<TrackPoints>() {
+            @Override
+            public TrackPoints call() throws Exception {
+                TrackPoints points = new TrackPoints();
+                TrackStore.getInstance(appContext).scan(fromTime, toTime, points);
+                return points;
+            }
+        });
+    }
+
+    /**
+     * Fetches only the buckets overlapping the range and decodes them on a worker thread.
+     */
+    public static Task<TrackPoints> loadContact(FirebaseFirestore db, String userId,
+                                                final long fromTime, final long toTime) {
+        return bucketQuery(db, userId, fromTime, toTime).get()
+                .continueWith(EXECUTOR, task -> {
+                    QuerySnapshot snapshots = task.getResult();
+                    final TrackPoints points = new TrackPoints();
+                    TrackCodec.Cursor cursor = new TrackCodec.Cursor();
+                    TrackStore.Visitor inRange = new TrackStore.Visitor() {
+                        @Override
+                        public void onFix(long time, double latitude, double longitude, float accuracy) {
+                            if (time >= fromTime && time <= toTime) {
+                                points.add(time, latitude, longitude);
+                            }
+                        }
+                    };
+                    for (DocumentSnapshot document : snapshots.getDocuments()) {
+                        TrackBuckets.decode(document, cursor, inRange);
+                    }
+                    return points;
+                });
+    }
+
+    /**
+     * Buckets whose start lies in [bucketStart(fromTime), toTime], in time order.
+     */
+    public static Query bucketQuery(FirebaseFirestore db, String userId, long fromTime, long toTime) {
+        return db.collection("users").document(userId).collection(TrackBuckets.COLLECTION)
+                .whereGreaterThanOrEqualTo(TrackBuckets.FIELD_START, TrackBuckets.bucketStart(fromTime))
+                .whereLessThanOrEqualTo(TrackBuckets.FIELD_START, toTime)
+                .orderBy(TrackBuckets.FIELD_START);
+    }
+}
@@ -0,0 +1,392 @@
+package com.example.securetrack;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Draws location history as polylines whose level of detail follows the camera.
+ * When a route is set, one Douglas–Peucker pass on a worker thread records for every fix
+ * the tolerance at which it would be dropped. Simplified copies for each zoom band (a
+ * tolerance of about one and a half screen pixels) are then cut from that in linear time.
+ * On camera idle the band for the new zoom is picked and, if it is still large, clipped to
+ * the viewport, so the number of vertices handed to the map stays roughly constant however
+ * far the user zooms in. Only the final setPoints calls run on the main thread.
+ */
+public class RouteRenderer {
+
+    private static final int MIN_BAND_ZOOM = 4;
+    private static final int MAX_BAND_ZOOM = 20;
+    private static final int ZOOM_BAND_STEP = 2;
+    private static final double TOLERANCE_PIXELS = 1.5;
+    // Web Mercator ground resolution at zoom 0 on the equator, in meters per 256dp tile pixel
+    private static final double METERS_PER_PIXEL_ZOOM_0 = 156543.03392;
+    // Bands up to this size are drawn whole; larger ones are clipped to the viewport
+    private static final int MAX_UNCLIPPED_VERTICES = 1500;
+    private static final float ROUTE_WIDTH = 8f;
+
+    private static final class Route {
+        final int color;
+        // Simplified vertices per zoom band, coarsest first
+        List<List<LatLng>> bands;
+        final List<Polyline> polylines = new ArrayList<>();
+        // Discards clip results superseded by a later camera move
+        int generation = 0;
+        // Band currently drawn whole, if any
+        List<LatLng> shownBand;
+
+        Route(int color) {
+            this.color = color;
+        }
+    }
+
+    private final GoogleMap map;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Route> routes = new HashMap<>();
+    private float zoom;
+    private LatLngBounds bounds;
+
+    public RouteRenderer(GoogleMap map) {
+        this.map = map;
+    }
+
+    /**
+     * Replaces a route. The points are copied; the caller may reuse them.
+     */
+    public void setRoute(final String routeId, TrackPoints points, int color) {
+        final int count = points.size();
+        final double[] latitudes = new double[count];
+        final double[] longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            latitudes[i] = points.getLatitude(i);
+            longitudes[i] = points.getLongitude(i);
+        }
+        final Route route = new Route(color);
+        removeRoute(routeId);
+        routes.put(routeId, route);
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<List<LatLng>> bands = buildBands(latitudes, longitudes, count);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (routes.get(routeId) == route) {
+                            route.bands = bands;
+                            render(routeId, route);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    public boolean hasRoute(String routeId) {
+        return routes.containsKey(routeId);
+    }
+
+    public void removeRoute(String routeId) {
+        Route route = routes.remove(routeId);
+        if (route != null) {
+            for (Polyline polyline : route.polylines) {
+                polyline.remove();
+            }
+        }
+    }
+
+    /**
+     * Picks the level of detail for the new camera position.
+     */
+    public void onCameraIdle(float zoom, LatLngBounds bounds) {
+        this.zoom = zoom;
+        this.bounds = bounds;
+        for (Map.Entry<String, Route> entry : routes.entrySet()) {
+            if (entry.getValue().bands != null) {
+                render(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public void clear() {
+        for (String routeId : new ArrayList<>(routes.keySet())) {
+            removeRoute(routeId);
+        }
+    }
+
+    public void shutdown() {
+        clear();
+        worker.shutdownNow();
+    }
+
+    private void render(final String routeId, final Route route) {
+        final List<LatLng> band = route.bands.get(bandIndex(zoom));
+        final LatLngBounds clip = bounds;
+        final int requested = ++route.generation;
+        if (band.size() <= MAX_UNCLIPPED_VERTICES || clip == null) {
+            if (route.shownBand != band) {
+                List<List<LatLng>> runs = new ArrayList<>(1);
+                runs.add(band);
+                apply(route, runs);
+                route.shownBand = band;
+            }
+            return;
+        }
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<List<LatLng>> runs = clipToBounds(band, clip);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (requested == route.generation && routes.get(routeId) == route) {
+                            apply(route, runs);
+                            route.shownBand = null;
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Shows each run as its own polyline, reusing existing polylines where possible.
+     */
+    private void apply(Route route, List<List<LatLng>> runs) {
+        for (int i = 0; i < runs.size(); i++) {
+            if (i < route.polylines.size()) {
+                route.polylines.get(i).setPoints(runs.get(i));
+            } else {
+                route.polylines.add(map.addPolyline(new PolylineOptions()
+                        .addAll(runs.get(i))
+                        .color(route.color)
+                        .width(ROUTE_WIDTH)
+                        .geodesic(false)));
+            }
+        }
+        while (route.polylines.size() > runs.size()) {
+            route.polylines.remove(route.polylines.size() - 1).remove();
+        }
+    }
+
+    private static int bandIndex(float zoom) {
+        int band = Math.round((zoom - MIN_BAND_ZOOM) / ZOOM_BAND_STEP);
+        return Math.max(0, Math.min((MAX_BAND_ZOOM - MIN_BAND_ZOOM) / ZOOM_BAND_STEP, band));
+    }
+
+    private static List<List<LatLng>> buildBands(double[] latitudes, double[] longitudes, int count) {
+        double[] significance = significance(latitudes, longitudes, count);
+        double metersPerPixel = count > 0
+                ? METERS_PER_PIXEL_ZOOM_0 * Math.cos(Math.toRadians(latitudes[0]))
+                : METERS_PER_PIXEL_ZOOM_0;
+        List<List<LatLng>> bands = new ArrayList<>();
+        // Bands share one LatLng per fix
+        LatLng[] vertices = new LatLng[count];
+        for (int zoom = MIN_BAND_ZOOM; zoom <= MAX_BAND_ZOOM; zoom += ZOOM_BAND_STEP) {
+            double tolerance = TOLERANCE_PIXELS * metersPerPixel / Math.pow(2, zoom);
+            List<LatLng> band = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                if (significance[i] >= tolerance) {
+                    if (vertices[i] == null) {
+                        vertices[i] = new LatLng(latitudes[i], longitudes[i]);
+                    }
+                    band.add(vertices[i]);
+                }
+            }
+            bands.add(band);
+        }
+        return bands;
+    }
+
+    /**
+     * Douglas–Peucker over the whole route, recording for each fix the largest tolerance at
+     * which it is still kept. A fix is never more significant than the split that exposed
+     * it, so every tolerance yields exactly the points Douglas–Peucker would keep. Endpoints
+     * are always kept. Uses an explicit stack, so long routes cannot overflow the call stack.
+     */
+    private static double[] significance(double[] latitudes, double[] longitudes, int count) {
+        double[] significance = new double[count];
+        if (count == 0) {
+            return significance;
+        }
+        significance[0] = Double.MAX_VALUE;
+        significance[count - 1] = Double.MAX_VALUE;
+        if (count < 3) {
+            return significance;
+        }
+
+        // Local flat projection in meters around the first fix
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        double metersPerDegreeLongitude = GeoMath.metersPerDegreeLongitude(latitudes[0]);
+        for (int i = 0; i < count; i++) {
+            xs[i] = (longitudes[i] - longitudes[0]) * metersPerDegreeLongitude;
+            ys[i] = (latitudes[i] - latitudes[0]) * GeoMath.METERS_PER_DEGREE;
+        }
+
+        int[] starts = new int[64];
+        int[] ends = new int[64];
+        double[] caps = new double[64];
+        int top = 0;
+        starts[0] = 0;
+        ends[0] = count - 1;
+        caps[0] = Double.MAX_VALUE;
+        top++;
+        while (top > 0) {
+            top--;
+            int start = starts[top];
+            int end = ends[top];
+            double cap = caps[top];
+            if (end - start < 2) {
+                continue;
+            }
+            int farthest = -1;
+            double maxDistance = -1;
+            for (int i = start + 1; i < end; i++) {
+                double distance = segmentDistance(xs[i], ys[i], xs[start], ys[start], xs[end], ys[end]);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+            double value = Math.min(cap, maxDistance);
+            significance[farthest] = value;
+            if (top + 2 > starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+                ends = Arrays.copyOf(ends, ends.length * 2);
+                caps = Arrays.copyOf(caps, caps.length * 2);
+            }
+            starts[top] = start;
+            ends[top] = farthest;
+            caps[top] = value;
+            top++;
+            starts[top] = farthest;
+            ends[top] = end;
+            caps[top] = value;
+            top++;
+        }
+        return significance;
+    }
+
+    private static double segmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? ((px - ax) * dx + (py - ay) * dy) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+        double ex = ax + t * dx - px;
+        double ey = ay + t * dy - py;
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+
+    /**
+     * Splits a band into the runs that pass through the bounds (grown by half their size),
+     * each extended by one vertex on both sides so lines leave the screen naturally. Runs are
+     * made of the segments that cross the bounds, so a long segment with both ends off screen
+     * is still drawn.
+     */
+    private static List<List<LatLng>> clipToBounds(List<LatLng> band, LatLngBounds bounds) {
+        double latMargin = (bounds.northeast.latitude - bounds.southwest.latitude) / 2;
+        double lonMargin = (bounds.northeast.longitude - bounds.southwest.longitude) / 2;
+        double south = bounds.southwest.latitude - latMargin;
+        double north = bounds.northeast.latitude + latMargin;
+        double west = bounds.southwest.longitude - lonMargin;
+        double east = bounds.northeast.longitude + lonMargin;
+        // Bounds across the antimeridian are only clipped by latitude
+        boolean wraps = lonMargin < 0;
+
+        List<List<LatLng>> runs = new ArrayList<>();
+        int size = band.size();
+        if (size == 1) {
+            if (crosses(band.get(0), band.get(0), south, north, west, east, wraps)) {
+                runs.add(new ArrayList<>(band));
+            }
+            return runs;
+        }
+        List<LatLng> run = null;
+        for (int i = 1; i < size; i++) {
+            LatLng from = band.get(i - 1);
+            LatLng to = band.get(i);
+            if (crosses(from, to, south, north, west, east, wraps)) {
+                if (run == null) {
+                    run = new ArrayList<>();
+                    run.add(from);
+                    runs.add(run);
+                }
+                run.add(to);
+            } else {
+                run = null;
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Liang–Barsky test: whether any part of the segment lies within the rectangle. The
+     * segment's parameter range [0, 1] is narrowed by each edge in turn and the segment
+     * misses the rectangle once the range is empty.
+     */
+    private static boolean crosses(LatLng from, LatLng to, double south, double north,
+                                   double west, double east, boolean wraps) {
+        double dLat = to.latitude - from.latitude;
+        double dLon = to.longitude - from.longitude;
+        double enter = 0;
+        double leave = 1;
+        int edges = wraps ? 2 : 4;
+        for (int edge = 0; edge < edges; edge++) {
+            double p;
+            double q;
+            switch (edge) {
+                case 0:
+                    p = -dLat;
+                    q = from.latitude - south;
+                    break;
+                case 1:
+                    p = dLat;
+                    q = north - from.latitude;
+                    break;
+                case 2:
+                    p = -dLon;
+                    q = from.longitude - west;
+                    break;
+                default:
+                    p = dLon;
+                    q = east - from.longitude;
+                    break;
+            }
+            if (p == 0) {
+                // Parallel to this edge: either entirely inside it or entirely outside
+                if (q < 0) {
+                    return false;
+                }
+                continue;
+            }
+            double t = q / p;
+            if (p < 0) {
+                if (t > leave) {
+                    return false;
+                }
+                enter = Math.max(enter, t);
+            } else {
+                if (t < enter) {
+                    return false;
+                }
+                leave = Math.min(leave, t);
+            }
+        }
+        return true;
+    }
+}
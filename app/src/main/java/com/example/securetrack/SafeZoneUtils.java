@@ -0,0 +1,78 @@
+package com.example.securetrack;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.GeoPoint;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Utility class for managing the current user's safe zones.
+ * Zones are read by LocationService, which reports enter/exit transitions to
+ * users/{uid}/zoneEvents.
+ */
+public class SafeZoneUtils {
+
+    /**
+     * Adds a circular safe zone to the current user's safeZones sub-collection.
+     *
+     * @param name Display name of the zone, e.g. "Home"
+     * @param latitude Latitude of the zone center
+     * @param longitude Longitude of the zone center
+     * @param radiusMeters Radius of the zone in meters
+     * @param onSuccessListener Callback receiving the new zone's reference
+     * @param onFailureListener Callback for failed addition
+     */
+    public static void addSafeZone(String name, double latitude, double longitude, double radiusMeters,
+                                   OnSuccessListener<DocumentReference> onSuccessListener,
+                                   OnFailureListener onFailureListener) {
+        FirebaseAuth auth = FirebaseAuth.getInstance();
+        if (auth.getCurrentUser() == null) {
+            onFailureListener.onFailure(new Exception("No authenticated user found"));
+            return;
+        }
+
+        Map<String, Object> zone = new HashMap<>();
+        zone.put("name", name);
+        zone.put("center", new GeoPoint(latitude, longitude));
+        zone.put("radius", radiusMeters);
+
+        FirebaseFirestore.getInstance()
+          .collection("users")
+          .document(auth.getCurrentUser().getUid())
+          .collection("safeZones")
+          .add(zone)
+          .addOnSuccessListener(onSuccessListener)
+          .addOnFailureListener(onFailureListener);
+    }
+
+    /**
+     * Removes a safe zone from the current user's safeZones sub-collection.
+     *
+     * @param zoneId The ID of the zone document
+     * @param onSuccessListener Callback for successful removal
+     * @param onFailureListener Callback for failed removal
+     */
+    public static void removeSafeZone(String zoneId,
+                                      OnSuccessListener<Void> onSuccessListener,
+                                      OnFailureListener onFailureListener) {
+        FirebaseAuth auth = FirebaseAuth.getInstance();
+        if (auth.getCurrentUser() == null) {
+            onFailureListener.onFailure(new Exception("No authenticated user found"));
+            return;
+        }
+
+        FirebaseFirestore.getInstance()
+          .collection("users")
+          .document(auth.getCurrentUser().getUid())
+          .collection("safeZones")
+          .document(zoneId)
+          .delete()
+          .addOnSuccessListener(onSuccessListener)
+          .addOnFailureListener(onFailureListener);
+    }
+}
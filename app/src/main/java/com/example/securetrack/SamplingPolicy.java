@@ -0,0 +1,203 @@
+package com.example.securetrack;
+
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.Priority;
+
+/**
+ * Chooses how aggressively LocationService samples based on recent movement.
+ * Recent fixes are kept in a small primitive ring buffer; from it the policy derives
+ * mean speed and the spread (radius of gyration) of positions, and classifies the user
+ * as stationary, walking or driving. A new mode is adopted only after it has been
+ * observed on several consecutive batches and the current mode has been held for a
+ * minimum dwell time, so the LocationRequest is not re-issued on every noisy fix.
+ */
+public class SamplingPolicy {
+
+    public enum Mode {
+        // Wi-Fi/cell positioning only, GPS stays off while the user is parked
+        STATIONARY(Priority.PRIORITY_BALANCED_POWER_ACCURACY, 120000, 60000, 50f, 300000),
+        WALKING(Priority.PRIORITY_BALANCED_POWER_ACCURACY, 20000, 10000, 10f, 60000),
+        DRIVING(Priority.PRIORITY_HIGH_ACCURACY, 5000, 2000, 25f, 30000);
+
+        final int priority;
+        final long intervalMillis;
+        final long minUpdateIntervalMillis;
+        final float minUpdateDistanceMeters;
+        final long maxUpdateDelayMillis;
+
+        Mode(int priority, long intervalMillis, long minUpdateIntervalMillis,
+             float minUpdateDistanceMeters, long maxUpdateDelayMillis) {
+            this.priority = priority;
+            this.intervalMillis = intervalMillis;
+            this.minUpdateIntervalMillis = minUpdateIntervalMillis;
+            this.minUpdateDistanceMeters = minUpdateDistanceMeters;
+            this.maxUpdateDelayMillis = maxUpdateDelayMillis;
+        }
+
+        public LocationRequest toLocationRequest() {
+            return new LocationRequest.Builder(priority, intervalMillis)
+                    .setMinUpdateIntervalMillis(minUpdateIntervalMillis)
+                    .setMinUpdateDistanceMeters(minUpdateDistanceMeters)
+                    .setMaxUpdateDelayMillis(maxUpdateDelayMillis)
+                    .build();
+        }
+    }
+
+    private static final int WINDOW_SIZE = 12;
+    // Fixes older than this no longer describe current movement
+    private static final long WINDOW_MILLIS = 5 * 60 * 1000;
+
+    private static final double STATIONARY_MAX_SPEED = 0.6;   // m/s
+    private static final double STATIONARY_MAX_SPREAD = 30;   // m
+    private static final double DRIVING_MIN_SPEED = 6.0;      // m/s, ~22 km/h
+
+    // Moving to a more aggressive mode is confirmed quickly so departures are not missed;
+    // backing off is confirmed slowly so a red light does not drop GPS
+    private static final int ESCALATE_CONFIRMATIONS = 1;
+    private static final int RELAX_CONFIRMATIONS = 3;
+    private static final long RELAX_MIN_DWELL_MILLIS = 3 * 60 * 1000;
+
+    private final double[] latitudes = new double[WINDOW_SIZE];
+    private final double[] longitudes = new double[WINDOW_SIZE];
+    private final long[] times = new long[WINDOW_SIZE];
+    private final float[] speeds = new float[WINDOW_SIZE];
+    private final float[] accuracies = new float[WINDOW_SIZE];
+    private int head = 0;
+    private int count = 0;
+
+    private Mode mode;
+    private long modeSinceTime = -1;
+    private Mode candidate;
+    private int candidateConfirmations = 0;
+
+    public SamplingPolicy(Mode initialMode) {
+        this.mode = initialMode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Feeds a batch of fixes into the policy.
+     *
+     * @param batch Fixes in time order
+     * @return true if the sampling mode changed and the LocationRequest must be re-issued
+     */
+    public boolean onBatch(LocationBatch batch) {
+        if (batch.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            push(batch.getLatitude(i), batch.getLongitude(i), batch.getTime(i),
+                    batch.getSpeed(i), batch.getAccuracy(i));
+        }
+        long now = batch.getTime(batch.size() - 1);
+        if (modeSinceTime < 0) {
+            modeSinceTime = now;
+        }
+        evictOlderThan(now - WINDOW_MILLIS);
+        if (count < 2) {
+            return false;
+        }
+
+        Mode observed = classify();
+        if (observed == mode) {
+            candidate = null;
+            candidateConfirmations = 0;
+            return false;
+        }
+        if (observed != candidate) {
+            candidate = observed;
+            candidateConfirmations = 0;
+        }
+        candidateConfirmations++;
+
+        boolean escalating = observed.ordinal() > mode.ordinal();
+        boolean confirmed = escalating
+                ? candidateConfirmations >= ESCALATE_CONFIRMATIONS
+                : candidateConfirmations >= RELAX_CONFIRMATIONS
+                        && now - modeSinceTime >= RELAX_MIN_DWELL_MILLIS;
+        if (!confirmed) {
+            return false;
+        }
+
+        mode = observed;
+        modeSinceTime = now;
+        candidate = null;
+        candidateConfirmations = 0;
+        return true;
+    }
+
+    private Mode classify() {
+        // Centroid of the window
+        double meanLat = 0;
+        double meanLon = 0;
+        double reportedSpeed = 0;
+        double meanAccuracy = 0;
+        for (int n = 0; n < count; n++) {
+            int i = index(n);
+            meanLat += latitudes[i];
+            meanLon += longitudes[i];
+            reportedSpeed += speeds[i];
+            meanAccuracy += accuracies[i];
+        }
+        meanLat /= count;
+        meanLon /= count;
+        reportedSpeed /= count;
+        meanAccuracy /= count;
+
+        // Spread of positions around the centroid (radius of gyration)
+        double variance = 0;
+        for (int n = 0; n < count; n++) {
+            int i = index(n);
+            double d = GeoMath.distanceMeters(meanLat, meanLon, latitudes[i], longitudes[i]);
+            variance += d * d;
+        }
+        double spread = Math.sqrt(variance / count);
+
+        // Speed implied by net displacement, robust to providers that do not report speed
+        int first = index(0);
+        int last = index(count - 1);
+        double elapsedSeconds = (times[last] - times[first]) / 1000.0;
+        double displacementSpeed = elapsedSeconds > 0
+                ? GeoMath.distanceMeters(latitudes[first], longitudes[first],
+                        latitudes[last], longitudes[last]) / elapsedSeconds
+                : 0;
+        double speed = Math.max(reportedSpeed, displacementSpeed);
+
+        if (speed >= DRIVING_MIN_SPEED) {
+            return Mode.DRIVING;
+        }
+        // Coarse fixes jitter by their accuracy radius even when the phone is still
+        if (speed <= STATIONARY_MAX_SPEED && spread <= Math.max(STATIONARY_MAX_SPREAD, meanAccuracy)) {
+            return Mode.STATIONARY;
+        }
+        return Mode.WALKING;
+    }
+
+    private void push(double latitude, double longitude, long time, float speed, float accuracy) {
+        int i = (head + count) % WINDOW_SIZE;
+        latitudes[i] = latitude;
+        longitudes[i] = longitude;
+        times[i] = time;
+        speeds[i] = speed;
+        accuracies[i] = accuracy;
+        if (count < WINDOW_SIZE) {
+            count++;
+        } else {
+            head = (head + 1) % WINDOW_SIZE;
+        }
+    }
+
+    private void evictOlderThan(long cutoff) {
+        while (count > 0 && times[head] < cutoff) {
+            head = (head + 1) % WINDOW_SIZE;
+            count--;
+        }
+    }
+
+    private int index(int n) {
+        return (head + n) % WINDOW_SIZE;
+    }
+}
@@ -19,5 +19,14 @@ public class SecureTrackApplication extends Application {
         } catch (Exception e) {
             Log.e(TAG, "Failed to initialize Firebase", e);
         }
+
+        LastSeenFormatter.init(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Marker icons are cheap to rebuild compared to being killed in the background
+        MarkerIconCache.getInstance(this).onTrimMemory(level);
     }
 }
@@ -0,0 +1,100 @@
+package com.example.securetrack;
+
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Firestore layout of uploaded location history.
+ * Fixes are grouped into one document per user per 15-minute bucket,
+ * users/{uid}/trackBuckets/{bucketStartMillis}. Each flush appends a chunk to the open
+ * bucket under chunks.{firstFixTime} as a TrackCodec blob, so the upload costs one write per
+ * bucket touched rather than one per fix, and a day's route is at most 96 small reads.
+ * Chunk keys derive from fix times, so re-uploading a chunk after a crash overwrites it.
+ */
+public final class TrackBuckets {
+
+    public static final String COLLECTION = "trackBuckets";
+    public static final long BUCKET_MILLIS = 15 * 60 * 1000;
+
+    public static final String FIELD_START = "start";
+    public static final String FIELD_END = "end";
+    public static final String FIELD_CHUNKS = "chunks";
+
+    private TrackBuckets() {
+    }
+
+    public static long bucketStart(long time) {
+        return time - Math.floorMod(time, BUCKET_MILLIS);
+    }
+
+    public static String documentId(long bucketStart) {
+        return String.valueOf(bucketStart);
+    }
+
+    /**
+     * Encodes journal entries {@code [from, to)}, all within one bucket, as a chunk blob.
+     * The first fix is stored relative to the bucket start and coordinate origin so each
+     * chunk decodes on its own.
+     */
+    public static Blob encodeChunk(List<LocationJournal.Entry> entries, int from, int to, long bucketStart) {
+        byte[] buffer = new byte[(to - from) * TrackCodec.MAX_RECORD_BYTES];
+        int position = 0;
+        long lastTime = bucketStart;
+        int lastLatitudeE7 = 0;
+        int lastLongitudeE7 = 0;
+        for (int i = from; i < to; i++) {
+            LocationJournal.Entry entry = entries.get(i);
+            int latitudeE7 = TrackCodec.toE7(entry.latitude);
+            int longitudeE7 = TrackCodec.toE7(entry.longitude);
+            position = TrackCodec.encode(buffer, position, entry.time - lastTime,
+                    latitudeE7 - lastLatitudeE7, longitudeE7 - lastLongitudeE7, entry.accuracy);
+            lastTime = entry.time;
+            lastLatitudeE7 = latitudeE7;
+            lastLongitudeE7 = longitudeE7;
+        }
+        return Blob.fromBytes(Arrays.copyOf(buffer, position));
+    }
+
+    /**
+     * Decodes every fix of a bucket document in time order.
+     *
+     * @return The number of fixes visited
+     */
+    public static int decode(DocumentSnapshot document, TrackCodec.Cursor cursor, TrackStore.Visitor visitor) {
+        Long start = document.getLong(FIELD_START);
+        Object chunksField = document.get(FIELD_CHUNKS);
+        if (start == null || !(chunksField instanceof Map)) {
+            return 0;
+        }
+        Map<?, ?> chunks = (Map<?, ?>) chunksField;
+        // Chunk keys are first-fix times; decimal strings of equal length sort numerically
+        List<String> keys = new ArrayList<>(chunks.size());
+        for (Object key : chunks.keySet()) {
+            keys.add(String.valueOf(key));
+        }
+        Collections.sort(keys);
+
+        int visited = 0;
+        for (String key : keys) {
+            Object chunk = chunks.get(key);
+            if (!(chunk instanceof Blob)) {
+                continue;
+            }
+            byte[] bytes = ((Blob) chunk).toBytes();
+            cursor.reset(ByteBuffer.wrap(bytes), 0, bytes.length, start, 0, 0);
+            while (cursor.next()) {
+                visitor.onFix(cursor.time, TrackCodec.fromE7(cursor.latitudeE7),
+                        TrackCodec.fromE7(cursor.longitudeE7), cursor.accuracy);
+                visited++;
+            }
+        }
+        return visited;
+    }
+}
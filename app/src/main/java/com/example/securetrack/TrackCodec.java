@@ -0,0 +1,121 @@
+package com.example.securetrack;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary encoding of location tracks.
+ * Each fix is written relative to the previous one as four varints: zigzag time delta in
+ * milliseconds, zigzag latitude and longitude deltas in 1e-7 degrees, and the accuracy in
+ * whole meters. A 5-second walking fix typically takes 6-8 bytes.
+ */
+public final class TrackCodec {
+
+    // Worst case: three 10-byte zigzag varints and a 5-byte accuracy varint
+    public static final int MAX_RECORD_BYTES = 35;
+
+    private TrackCodec() {
+    }
+
+    public static int toE7(double degrees) {
+        return (int) Math.round(degrees * 1e7);
+    }
+
+    public static double fromE7(int e7) {
+        return e7 / 1e7;
+    }
+
+    /**
+     * Encodes one fix as deltas from the previous fix.
+     *
+     * @return Position after the last written byte
+     */
+    public static int encode(byte[] dst, int pos, long timeDelta, int latitudeDeltaE7,
+                             int longitudeDeltaE7, float accuracy) {
+        pos = putVarLong(dst, pos, zigzag(timeDelta));
+        pos = putVarLong(dst, pos, zigzag(latitudeDeltaE7));
+        pos = putVarLong(dst, pos, zigzag(longitudeDeltaE7));
+        pos = putVarLong(dst, pos, Math.max(0, Math.round(accuracy)));
+        return pos;
+    }
+
+    private static int putVarLong(byte[] dst, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            dst[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dst[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Sequential decoder over an encoded run of fixes. Reads with absolute indices, so the
+     * underlying buffer (e.g. a shared memory mapping) is never repositioned, and can be
+     * reset onto another range without allocating.
+     */
+    public static final class Cursor {
+        private ByteBuffer buffer;
+        private int position;
+        private int limit;
+
+        public long time;
+        public int latitudeE7;
+        public int longitudeE7;
+        public int accuracy;
+
+        /**
+         * Points the cursor at {@code [start, limit)} of {@code buffer}, with the given
+         * base values the first record's deltas apply to.
+         */
+        public void reset(ByteBuffer buffer, int start, int limit,
+                          long baseTime, int baseLatitudeE7, int baseLongitudeE7) {
+            this.buffer = buffer;
+            this.position = start;
+            this.limit = limit;
+            this.time = baseTime;
+            this.latitudeE7 = baseLatitudeE7;
+            this.longitudeE7 = baseLongitudeE7;
+            this.accuracy = 0;
+        }
+
+        /**
+         * Decodes the next fix into the public fields.
+         *
+         * @return false once the range is exhausted
+         */
+        public boolean next() {
+            if (position >= limit) {
+                return false;
+            }
+            time += unzigzag(readVarLong());
+            latitudeE7 += (int) unzigzag(readVarLong());
+            longitudeE7 += (int) unzigzag(readVarLong());
+            accuracy = (int) readVarLong();
+            return true;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        private long readVarLong() {
+            long result = 0;
+            int shift = 0;
+            while (true) {
+                byte b = buffer.get(position++);
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.securetrack;
+
+import java.util.Arrays;
+
+/**
+ * Growable run of fixes in parallel primitive arrays, filled straight from a TrackStore or
+ * TrackBuckets scan. Used to hand decoded history to renderers without a LatLng per fix.
+ */
+public class TrackPoints implements TrackStore.Visitor {
+
+    private long[] times;
+    private double[] latitudes;
+    private double[] longitudes;
+    private int size = 0;
+
+    public TrackPoints() {
+        this(256);
+    }
+
+    public TrackPoints(int capacity) {
+        times = new long[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+    }
+
+    @Override
+    public void onFix(long time, double latitude, double longitude, float accuracy) {
+        add(time, latitude, longitude);
+    }
+
+    public void add(long time, double latitude, double longitude) {
+        if (size == times.length) {
+            int capacity = Math.max(16, size * 2);
+            times = Arrays.copyOf(times, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+        }
+        times[size] = time;
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    /**
+     * Index of the first fix at or after {@code time}; {@link #size()} if there is none.
+     * Fixes must be in time order.
+     */
+    public int indexAtOrAfter(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.securetrack;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Local location history in a compact, memory-mapped binary file.
+ * The file is a fixed ring of equally sized segments. Each segment has a small header
+ * (fix count, used bytes, first/last time and the first fix's coordinates) followed by
+ * fixes delta-encoded with TrackCodec, so weeks of 5-second fixes fit in a few MB. When the
+ * ring is full the oldest segment is recycled. Time-range scans binary-search the segment
+ * headers for the first segment in range and decode fixes straight out of the mapping into
+ * primitive callbacks, without creating an object per fix.
+ */
+public class TrackStore {
+    private static final String TAG = "TrackStore";
+
+    private static final String FILE_NAME = "track.bin";
+    private static final int MAGIC = 0x53545452; // "STTR"
+    private static final int VERSION = 1;
+
+    // File header: magic, version, capacity, head segment, segment count
+    private static final int FILE_HEADER_BYTES = 32;
+    private static final int SEGMENT_BYTES = 16 * 1024;
+    // ~2000 walking fixes per segment; 256 segments is a 4 MiB file holding about a month
+    private static final int SEGMENT_CAPACITY = 256;
+
+    // Segment header layout
+    private static final int SEGMENT_COUNT_OFFSET = 0;
+    private static final int SEGMENT_USED_OFFSET = 4;
+    private static final int SEGMENT_START_TIME_OFFSET = 8;
+    private static final int SEGMENT_END_TIME_OFFSET = 16;
+    private static final int SEGMENT_BASE_LATITUDE_OFFSET = 24;
+    private static final int SEGMENT_BASE_LONGITUDE_OFFSET = 28;
+    private static final int SEGMENT_HEADER_BYTES = 32;
+    private static final int SEGMENT_PAYLOAD_BYTES = SEGMENT_BYTES - SEGMENT_HEADER_BYTES;
+
+    /**
+     * Receives fixes from a scan, oldest first.
+     */
+    public interface Visitor {
+        void onFix(long time, double latitude, double longitude, float accuracy);
+    }
+
+    private static TrackStore instance;
+
+    private final MappedByteBuffer map;
+    private final TrackCodec.Cursor cursor = new TrackCodec.Cursor();
+    private final byte[] scratch = new byte[TrackCodec.MAX_RECORD_BYTES];
+
+    private int head;
+    private int segmentCount;
+    // Last fix of the newest segment, the base for the next delta
+    private long lastTime;
+    private int lastLatitudeE7;
+    private int lastLongitudeE7;
+
+    public static synchronized TrackStore getInstance(Context context) throws IOException {
+        if (instance == null) {
+            instance = new TrackStore(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+
+    private TrackStore(File file) throws IOException {
+        long length = FILE_HEADER_BYTES + (long) SEGMENT_CAPACITY * SEGMENT_BYTES;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() != length) {
+                raf.setLength(length);
+            }
+            map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION || map.getInt(8) != SEGMENT_CAPACITY) {
+            Log.w(TAG, "Initializing new track file");
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putInt(8, SEGMENT_CAPACITY);
+            head = 0;
+            segmentCount = 0;
+            writeFileHeader();
+        } else {
+            head = map.getInt(12);
+            segmentCount = map.getInt(16);
+            if (segmentCount > 0) {
+                recoverLastFix();
+            }
+        }
+    }
+
+    /**
+     * Appends a batch of fixes in order.
+     */
+    public synchronized void append(LocationBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            append(batch.getTime(i), TrackCodec.toE7(batch.getLatitude(i)),
+                    TrackCodec.toE7(batch.getLongitude(i)), batch.getAccuracy(i));
+        }
+    }
+
+    private void append(long time, int latitudeE7, int longitudeE7, float accuracy) {
+        int segment = segmentCount > 0 ? segmentOffset(segmentCount - 1) : -1;
+        int length = 0;
+        if (segment >= 0) {
+            length = TrackCodec.encode(scratch, 0, time - lastTime,
+                    latitudeE7 - lastLatitudeE7, longitudeE7 - lastLongitudeE7, accuracy);
+        }
+        if (segment < 0 || map.getInt(segment + SEGMENT_USED_OFFSET) + length > SEGMENT_PAYLOAD_BYTES) {
+            segment = openSegment(time, latitudeE7, longitudeE7);
+            length = TrackCodec.encode(scratch, 0, 0, 0, 0, accuracy);
+        }
+
+        int used = map.getInt(segment + SEGMENT_USED_OFFSET);
+        int payload = segment + SEGMENT_HEADER_BYTES + used;
+        for (int i = 0; i < length; i++) {
+            map.put(payload + i, scratch[i]);
+        }
+        // Payload first, then the header fields that make it visible
+        map.putLong(segment + SEGMENT_END_TIME_OFFSET,
+                Math.max(time, map.getLong(segment + SEGMENT_END_TIME_OFFSET)));
+        map.putInt(segment + SEGMENT_USED_OFFSET, used + length);
+        map.putInt(segment + SEGMENT_COUNT_OFFSET, map.getInt(segment + SEGMENT_COUNT_OFFSET) + 1);
+
+        lastTime = time;
+        lastLatitudeE7 = latitudeE7;
+        lastLongitudeE7 = longitudeE7;
+    }
+
+    /**
+     * Visits every stored fix with {@code fromTime <= time <= toTime}, oldest first.
+     *
+     * @return The number of fixes visited
+     */
+    public synchronized int scan(long fromTime, long toTime, Visitor visitor) {
+        int visited = 0;
+        for (int logical = firstSegmentEndingAtOrAfter(fromTime); logical < segmentCount; logical++) {
+            int segment = segmentOffset(logical);
+            if (map.getLong(segment + SEGMENT_START_TIME_OFFSET) > toTime) {
+                break;
+            }
+            visited += scanSegment(segment, fromTime, toTime, visitor);
+        }
+        return visited;
+    }
+
+    /**
+     * Binary search over the segment headers, which are in time order: the first logical
+     * segment whose end time is at or after {@code time}, or segmentCount if there is none.
+     * Seeking is O(log segments) and decodes nothing.
+     */
+    private int firstSegmentEndingAtOrAfter(long time) {
+        int low = 0;
+        int high = segmentCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (map.getLong(segmentOffset(mid) + SEGMENT_END_TIME_OFFSET) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return Time of the oldest stored fix, or -1 if the store is empty
+     */
+    public synchronized long getOldestTime() {
+        return segmentCount > 0 ? map.getLong(segmentOffset(0) + SEGMENT_START_TIME_OFFSET) : -1;
+    }
+
+    /**
+     * @return Time of the newest stored fix, or -1 if the store is empty
+     */
+    public synchronized long getNewestTime() {
+        return segmentCount > 0 ? map.getLong(segmentOffset(segmentCount - 1) + SEGMENT_END_TIME_OFFSET) : -1;
+    }
+
+    private int scanSegment(int segment, long fromTime, long toTime, Visitor visitor) {
+        int start = segment + SEGMENT_HEADER_BYTES;
+        cursor.reset(map, start, start + map.getInt(segment + SEGMENT_USED_OFFSET),
+                map.getLong(segment + SEGMENT_START_TIME_OFFSET),
+                map.getInt(segment + SEGMENT_BASE_LATITUDE_OFFSET),
+                map.getInt(segment + SEGMENT_BASE_LONGITUDE_OFFSET));
+        int visited = 0;
+        while (cursor.next()) {
+            if (cursor.time < fromTime) {
+                continue;
+            }
+            if (cursor.time > toTime) {
+                break;
+            }
+            visitor.onFix(cursor.time, TrackCodec.fromE7(cursor.latitudeE7),
+                    TrackCodec.fromE7(cursor.longitudeE7), cursor.accuracy);
+            visited++;
+        }
+        return visited;
+    }
+
+    private int openSegment(long time, int latitudeE7, int longitudeE7) {
+        if (segmentCount < SEGMENT_CAPACITY) {
+            segmentCount++;
+        } else {
+            // Ring is full: the oldest segment becomes the newest
+            head = (head + 1) % SEGMENT_CAPACITY;
+        }
+        int segment = segmentOffset(segmentCount - 1);
+        map.putInt(segment + SEGMENT_COUNT_OFFSET, 0);
+        map.putInt(segment + SEGMENT_USED_OFFSET, 0);
+        map.putLong(segment + SEGMENT_START_TIME_OFFSET, time);
+        map.putLong(segment + SEGMENT_END_TIME_OFFSET, time);
+        map.putInt(segment + SEGMENT_BASE_LATITUDE_OFFSET, latitudeE7);
+        map.putInt(segment + SEGMENT_BASE_LONGITUDE_OFFSET, longitudeE7);
+        writeFileHeader();
+        return segment;
+    }
+
+    private void recoverLastFix() {
+        int segment = segmentOffset(segmentCount - 1);
+        int start = segment + SEGMENT_HEADER_BYTES;
+        cursor.reset(map, start, start + map.getInt(segment + SEGMENT_USED_OFFSET),
+                map.getLong(segment + SEGMENT_START_TIME_OFFSET),
+                map.getInt(segment + SEGMENT_BASE_LATITUDE_OFFSET),
+                map.getInt(segment + SEGMENT_BASE_LONGITUDE_OFFSET));
+        while (cursor.next()) {
+            // Walk to the last record
+        }
+        lastTime = cursor.time;
+        lastLatitudeE7 = cursor.latitudeE7;
+        lastLongitudeE7 = cursor.longitudeE7;
+    }
+
+    private void writeFileHeader() {
+        map.putInt(12, head);
+        map.putInt(16, segmentCount);
+    }
+
+    private int segmentOffset(int logical) {
+        return FILE_HEADER_BYTES + ((head + logical) % SEGMENT_CAPACITY) * SEGMENT_BYTES;
+    }
+}
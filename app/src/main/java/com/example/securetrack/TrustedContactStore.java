@@ -0,0 +1,160 @@
+package com.example.securetrack;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import androidx.annotation.Nullable;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * On-device copy of each user's trustedContacts collection plus the sync high-water mark:
+ * the largest {@code updatedAt} applied so far. The contacts screen renders from here and
+ * asks Firestore only for documents changed since the mark. Removals reach other devices as
+ * tombstones ({@code deleted: true}) because a delta query cannot see deleted documents.
+ * Blocking; call off the main thread.
+ */
+public class TrustedContactStore extends SQLiteOpenHelper {
+
+    public static final String FIELD_UPDATED_AT = "updatedAt";
+    public static final String FIELD_DELETED = "deleted";
+
+    private static final String DATABASE_NAME = "trusted_contacts.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_CONTACTS = "contacts";
+    private static final String TABLE_SYNC = "sync_state";
+    private static final String COLUMN_OWNER_ID = "owner_id";
+    private static final String COLUMN_DOCUMENT_ID = "document_id";
+    private static final String COLUMN_UID = "uid";
+    private static final String COLUMN_NAME = "name";
+    private static final String COLUMN_HIGH_WATER = "high_water";
+
+    private static TrustedContactStore instance;
+
+    public static synchronized TrustedContactStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new TrustedContactStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private TrustedContactStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_CONTACTS + " ("
+                + COLUMN_OWNER_ID + " TEXT NOT NULL, "
+                + COLUMN_DOCUMENT_ID + " TEXT NOT NULL, "
+                + COLUMN_UID + " TEXT NOT NULL, "
+                + COLUMN_NAME + " TEXT, "
+                + "PRIMARY KEY (" + COLUMN_OWNER_ID + ", " + COLUMN_DOCUMENT_ID + "))");
+        db.execSQL("CREATE TABLE " + TABLE_SYNC + " ("
+                + COLUMN_OWNER_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_HIGH_WATER + " INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_CONTACTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SYNC);
+        onCreate(db);
+    }
+
+    /**
+     * Reads the contacts after {@code afterDocumentId} in document ID order.
+     *
+     * @param afterDocumentId Exclusive cursor, or null to start from the beginning
+     */
+    public List<TrustedContactsAdapter.TrustedContact> loadPage(String ownerId,
+                                                                @Nullable String afterDocumentId,
+                                                                int limit) {
+        List<TrustedContactsAdapter.TrustedContact> contacts = new ArrayList<>();
+        String selection = COLUMN_OWNER_ID + " = ?";
+        String[] args = new String[]{ownerId};
+        if (afterDocumentId != null) {
+            selection += " AND " + COLUMN_DOCUMENT_ID + " > ?";
+            args = new String[]{ownerId, afterDocumentId};
+        }
+        Cursor cursor = getReadableDatabase().query(TABLE_CONTACTS,
+                new String[]{COLUMN_DOCUMENT_ID, COLUMN_UID, COLUMN_NAME},
+                selection, args, null, null, COLUMN_DOCUMENT_ID + " ASC", String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                contacts.add(new TrustedContactsAdapter.TrustedContact(
+                        cursor.getString(0), cursor.getString(1), cursor.getString(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return contacts;
+    }
+
+    /**
+     * @return The high-water mark in epoch millis, or -1 if this owner was never synced
+     */
+    public long getHighWaterMark(String ownerId) {
+        Cursor cursor = getReadableDatabase().query(TABLE_SYNC, new String[]{COLUMN_HIGH_WATER},
+                COLUMN_OWNER_ID + " = ?", new String[]{ownerId}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Applies synced changes in one transaction. The high-water mark only moves forward;
+     * pass a negative value to leave it unchanged.
+     */
+    public void apply(String ownerId, Collection<TrustedContactsAdapter.TrustedContact> upserts,
+                      Collection<String> deletedDocumentIds, long highWaterMark) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues(4);
+        db.beginTransaction();
+        try {
+            for (TrustedContactsAdapter.TrustedContact contact : upserts) {
+                values.put(COLUMN_OWNER_ID, ownerId);
+                values.put(COLUMN_DOCUMENT_ID, contact.documentId);
+                values.put(COLUMN_UID, contact.uid);
+                values.put(COLUMN_NAME, contact.name);
+                db.insertWithOnConflict(TABLE_CONTACTS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            for (String documentId : deletedDocumentIds) {
+                db.delete(TABLE_CONTACTS, COLUMN_OWNER_ID + " = ? AND " + COLUMN_DOCUMENT_ID + " = ?",
+                        new String[]{ownerId, documentId});
+            }
+            if (highWaterMark >= 0 && highWaterMark > getHighWaterMark(ownerId)) {
+                values.clear();
+                values.put(COLUMN_OWNER_ID, ownerId);
+                values.put(COLUMN_HIGH_WATER, highWaterMark);
+                db.insertWithOnConflict(TABLE_SYNC, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * The document's {@code updatedAt} in epoch millis, or -1 while it is a pending server
+     * timestamp or was written before the field existed.
+     */
+    public static long updatedAtMillis(DocumentSnapshot document) {
+        Object value = document.get(FIELD_UPDATED_AT);
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toDate().getTime();
+        }
+        return -1;
+    }
+}
@@ -1,6 +1,10 @@
 package com.example.securetrack;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
@@ -17,17 +21,29 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.FirebaseFirestore;
 
 public class TrustedContactsActivity extends AppCompatActivity {
 
+    // Rows left below the last visible one when the next page is requested
+    private static final int PREFETCH_DISTANCE = 20;
+    // Quiet period after the last keystroke before a search runs
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+
     private RecyclerView recyclerViewContacts;
     private EditText editTextInvitationCode;
+    private EditText editTextSearchContacts;
     private Button buttonAddContact;
     private TrustedContactsAdapter adapter;
     private FirebaseAuth mAuth;
-    private FirebaseFirestore db;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (adapter != null) {
+                adapter.setQuery(editTextSearchContacts.getText().toString());
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -43,7 +59,6 @@ public class TrustedContactsActivity extends AppCompatActivity {
 
         // Initialize Firebase
         mAuth = FirebaseAuth.getInstance();
-        db = FirebaseFirestore.getInstance();
 
         // Initialize views
         initializeViews();
@@ -59,13 +74,25 @@ public class TrustedContactsActivity extends AppCompatActivity {
         recyclerViewContacts = findViewById(R.id.recyclerViewContacts);
         editTextInvitationCode = findViewById(R.id.editTextInvitationCode);
         buttonAddContact = findViewById(R.id.buttonAddContact);
+        editTextSearchContacts = findViewById(R.id.editTextSearchContacts);
     }
 
     private void setupRecyclerView() {
         if (mAuth.getCurrentUser() != null) {
             adapter = new TrustedContactsAdapter(this, mAuth.getCurrentUser().getUid());
-            recyclerViewContacts.setLayoutManager(new LinearLayoutManager(this));
+            final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+            recyclerViewContacts.setLayoutManager(layoutManager);
             recyclerViewContacts.setAdapter(adapter);
+            // Fetch the next page while the user is still a screenful away from the end
+            recyclerViewContacts.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                    int remaining = adapter.getItemCount() - layoutManager.findLastVisibleItemPosition();
+                    if (dy > 0 && remaining <= PREFETCH_DISTANCE) {
+                        adapter.loadNextPage();
+                    }
+                }
+            });
         }
     }
 
@@ -76,6 +103,22 @@ public class TrustedContactsActivity extends AppCompatActivity {
                 addTrustedContact();
             }
         });
+
+        editTextSearchContacts.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchHandler.removeCallbacks(searchRunnable);
+                searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+            }
+        });
     }
 
     private void addTrustedContact() {
@@ -87,32 +130,29 @@ public class TrustedContactsActivity extends AppCompatActivity {
             return;
         }
 
-        // For now, we'll create a simple implementation
-        // In a real app, you would validate the invitation code and get the user's details
-        String trustedContactUid = "temp_uid_" + System.currentTimeMillis();
-        String trustedContactName = "Contact from code: " + invitationCode;
-
-        if (mAuth.getCurrentUser() != null) {
-            InvitationUtils.addTrustedContactForCurrentUser(
-                trustedContactUid,
-                trustedContactName,
-                new OnSuccessListener<Void>() {
-                    @Override
-                    public void onSuccess(Void aVoid) {
-                        Toast.makeText(TrustedContactsActivity.this, 
-                            "Trusted contact added successfully!", Toast.LENGTH_SHORT).show();
-                        editTextInvitationCode.setText("");
-                    }
-                },
-                new OnFailureListener() {
-                    @Override
-                    public void onFailure(Exception e) {
-                        Toast.makeText(TrustedContactsActivity.this, 
-                            "Failed to add trusted contact: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                    }
+        // Adds both users to each other's trusted contacts; the list picks it up on sync
+        buttonAddContact.setEnabled(false);
+        InvitationUtils.redeemInvitationCode(
+            invitationCode,
+            new OnSuccessListener<String>() {
+                @Override
+                public void onSuccess(String contactName) {
+                    buttonAddContact.setEnabled(true);
+                    Toast.makeText(TrustedContactsActivity.this, 
+                        (contactName != null ? contactName : "Trusted contact") + " added successfully!",
+                        Toast.LENGTH_SHORT).show();
+                    editTextInvitationCode.setText("");
                 }
-            );
-        }
+            },
+            new OnFailureListener() {
+                @Override
+                public void onFailure(Exception e) {
+                    buttonAddContact.setEnabled(true);
+                    Toast.makeText(TrustedContactsActivity.this, 
+                        "Failed to add trusted contact: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                }
+            }
+        );
     }
 
     @Override
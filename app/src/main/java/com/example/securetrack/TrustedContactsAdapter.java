@@ -1,6 +1,8 @@
 package com.example.securetrack;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -9,73 +11,479 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FieldPath;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.functions.FirebaseFunctions;
 import com.google.firebase.functions.HttpsCallableResult;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TrustedContactsAdapter extends RecyclerView.Adapter<TrustedContactsAdapter.TrustedContactViewHolder> {
 
+    // Rows read from the local store per page, in document ID order
+    private static final int PAGE_SIZE = 50;
+    // Documents fetched per request while seeding an empty local store
+    private static final int SEED_PAGE_SIZE = 200;
+    // Re-read changes this far behind the high-water mark, in case commits landed out of order
+    private static final long SYNC_OVERLAP_MS = 60 * 1000;
+    private static final int MAX_SEARCH_RESULTS = 200;
+    // Contacts read per query while building the search index from the store
+    private static final int INDEX_BUILD_BATCH = 500;
+
+    // Store reads and writes run here in order, and their results are posted to the main
+    // thread in that same order, so memory never sees a change older than a page it loaded
+    private static final ExecutorService STORE_EXECUTOR = Executors.newSingleThreadExecutor();
+
     private final Context context;
     private final String currentUserId;
     private final FirebaseFirestore db;
     private final FirebaseFunctions functions;
+    private final TrustedContactStore store;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
+    // The loaded prefix of the local contact table, in document ID order
     private final List<TrustedContact> contacts = new ArrayList<>();
+    // Only set once the store holds the whole collection, i.e. after the first sync finished
+    private boolean allLoaded = false;
+    private boolean loadingPage = false;
+    // A page was asked for while another was loading; read it once that one lands
+    private boolean pageRequested = false;
+    // Stable RecyclerView item IDs, assigned per contact document on first sight
+    private final Map<String, Long> itemIds = new HashMap<>();
+    private long nextItemId = 0;
     private ListenerRegistration registration;
 
+    // Search over every stored contact, not just the loaded rows. The index is confined to
+    // STORE_EXECUTOR and built from the store on the first query.
+    private final ContactSearchIndex searchIndex = new ContactSearchIndex();
+    private boolean searchIndexBuilt = false;
+    private String query = "";
+    // Rows shown instead of the contact list while a query is active
+    private List<TrustedContact> searchResults;
+    private int searchGeneration = 0;
+    // Bumped per showRows call so only the latest diff is dispatched
+    private int rowsGeneration = 0;
+    // Bumped whenever the loaded rows change, to detect a diff computed over stale rows
+    private int contactsVersion = 0;
+
+    // Bumped on stop so seeding and listener callbacks from an earlier start are ignored
+    private int syncGeneration = 0;
+
     public TrustedContactsAdapter(Context context, String currentUserId) {
         this.context = context;
         this.currentUserId = currentUserId;
         this.db = FirebaseFirestore.getInstance();
         this.functions = FirebaseFunctions.getInstance();
+        this.store = TrustedContactStore.getInstance(context);
+        setHasStableIds(true);
     }
 
+    /**
+     * Shows the locally stored contacts, then syncs the changes made since the last sync and
+     * keeps listening for further ones. Rows already shown stay in place across stop/start.
+     */
     public void startListening() {
         stopListening();
+        final int generation = syncGeneration;
+        if (contacts.isEmpty() && !allLoaded) {
+            loadNextPage();
+        }
+        STORE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long highWaterMark = store.getHighWaterMark(currentUserId);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != syncGeneration) {
+                            return;
+                        }
+                        if (highWaterMark < 0) {
+                            seed(generation, null, 0);
+                        } else {
+                            listenForChanges(generation, highWaterMark);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    public void stopListening() {
+        syncGeneration++;
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+    }
+
+    /**
+     * Reads the next page from the local store, unless one is still loading or everything
+     * is shown. Called as the list nears its end.
+     */
+    public void loadNextPage() {
+        if (loadingPage) {
+            pageRequested = true;
+            return;
+        }
+        if (allLoaded || searchResults != null) {
+            return;
+        }
+        loadingPage = true;
+        final String afterId = contacts.isEmpty() ? null : contacts.get(contacts.size() - 1).documentId;
+        STORE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<TrustedContact> page = store.loadPage(currentUserId, afterId, PAGE_SIZE);
+                // A short page only means the end while no first sync is still filling the store
+                final boolean seeded = store.getHighWaterMark(currentUserId) >= 0;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        loadingPage = false;
+                        // Rows changed while the read was queued were already applied in range
+                        int start = contacts.size();
+                        for (TrustedContact contact : page) {
+                            if (indexOf(contact.documentId) < 0) {
+                                contacts.add(contact);
+                            }
+                        }
+                        if (contacts.size() > start) {
+                            contactsVersion++;
+                        }
+                        allLoaded = seeded && page.size() < PAGE_SIZE;
+                        if (searchResults == null) {
+                            notifyItemRangeInserted(start, contacts.size() - start);
+                        }
+                        if (pageRequested) {
+                            pageRequested = false;
+                            loadNextPage();
+                        }
+                    }
+                });
+            }
+        });
+    }
 
+    /**
+     * First sync for this user on this device: reads the whole collection in document ID
+     * pages (documents written before updatedAt existed have no timestamp to query by).
+     * Seeded rows reach the list through the store, a page at a time, never all at once.
+     */
+    private void seed(final int generation, @Nullable final String afterId, final long highWaterMark) {
+        Query query = db.collection("users")
+                .document(currentUserId)
+                .collection("trustedContacts")
+                .orderBy(FieldPath.documentId())
+                .limit(SEED_PAGE_SIZE);
+        if (afterId != null) {
+            query = query.startAfter(afterId);
+        }
+        query.get()
+                .addOnSuccessListener(new com.google.android.gms.tasks.OnSuccessListener<QuerySnapshot>() {
+                    @Override
+                    public void onSuccess(QuerySnapshot snapshots) {
+                        if (generation != syncGeneration) {
+                            return;
+                        }
+                        List<DocumentSnapshot> documents = snapshots.getDocuments();
+                        long mark = highWaterMark;
+                        List<TrustedContact> upserts = new ArrayList<>();
+                        List<String> deletes = new ArrayList<>();
+                        for (DocumentSnapshot document : documents) {
+                            mark = Math.max(mark, TrustedContactStore.updatedAtMillis(document));
+                            collect(document, upserts, deletes);
+                        }
+                        if (documents.size() == SEED_PAGE_SIZE) {
+                            applyRemote(upserts, deletes, -1);
+                            seed(generation, documents.get(documents.size() - 1).getId(), mark);
+                        } else {
+                            // The mark is only stored once the whole collection is local
+                            applyRemote(upserts, deletes, mark);
+                            listenForChanges(generation, mark);
+                        }
+                        // Queued after the write above, so the read sees the seeded rows
+                        if (contacts.size() < PAGE_SIZE) {
+                            loadNextPage();
+                        }
+                    }
+                })
+                .addOnFailureListener(new com.google.android.gms.tasks.OnFailureListener() {
+                    @Override
+                    public void onFailure(Exception e) {
+                        Toast.makeText(context, "Failed to load contacts: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                    }
+                });
+    }
+
+    /**
+     * Listens only to documents updated after the high-water mark. Tombstones and documents
+     * deleted outright both remove the local row.
+     */
+    private void listenForChanges(final int generation, long highWaterMark) {
+        long since = Math.max(0, highWaterMark - SYNC_OVERLAP_MS);
         registration = db.collection("users")
                 .document(currentUserId)
                 .collection("trustedContacts")
+                .whereGreaterThan(TrustedContactStore.FIELD_UPDATED_AT, new Timestamp(new Date(since)))
+                .orderBy(TrustedContactStore.FIELD_UPDATED_AT)
                 .addSnapshotListener(new EventListener<QuerySnapshot>() {
                     @Override
                     public void onEvent(@Nullable QuerySnapshot snapshots, @Nullable FirebaseFirestoreException e) {
+                        if (generation != syncGeneration) {
+                            return;
+                        }
                         if (e != null) {
                             Toast.makeText(context, "Failed to load contacts: " + e.getMessage(), Toast.LENGTH_LONG).show();
                             return;
                         }
-                        contacts.clear();
-                        if (snapshots != null) {
-                            for (DocumentSnapshot doc : snapshots.getDocuments()) {
-                                TrustedContact contact = TrustedContact.from(doc);
-                                if (contact != null) {
-                                    contacts.add(contact);
+                        if (snapshots == null || snapshots.getDocumentChanges().isEmpty()) {
+                            return;
+                        }
+                        long mark = -1;
+                        List<TrustedContact> upserts = new ArrayList<>();
+                        List<String> deletes = new ArrayList<>();
+                        for (DocumentChange change : snapshots.getDocumentChanges()) {
+                            DocumentSnapshot document = change.getDocument();
+                            mark = Math.max(mark, TrustedContactStore.updatedAtMillis(document));
+                            if (change.getType() == DocumentChange.Type.REMOVED) {
+                                deletes.add(document.getId());
+                            } else {
+                                collect(document, upserts, deletes);
+                            }
+                        }
+                        applyRemote(upserts, deletes, mark);
+                    }
+                });
+    }
+
+    private static void collect(DocumentSnapshot document, List<TrustedContact> upserts, List<String> deletes) {
+        TrustedContact contact = TrustedContact.from(document);
+        if (contact != null) {
+            upserts.add(contact);
+        } else {
+            deletes.add(document.getId());
+        }
+    }
+
+    /**
+     * Persists synced changes, then mirrors them into the loaded rows.
+     */
+    private void applyRemote(final List<TrustedContact> upserts, final List<String> deletes,
+                             final long highWaterMark) {
+        STORE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                store.apply(currentUserId, upserts, deletes, highWaterMark);
+                if (searchIndexBuilt) {
+                    for (String documentId : deletes) {
+                        searchIndex.remove(documentId);
+                    }
+                    for (TrustedContact contact : upserts) {
+                        searchIndex.put(contact);
+                    }
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean notify = searchResults == null;
+                        for (String documentId : deletes) {
+                            int index = indexOf(documentId);
+                            if (index >= 0) {
+                                contacts.remove(index);
+                                contactsVersion++;
+                                if (notify) {
+                                    notifyItemRemoved(index);
                                 }
                             }
                         }
-                        notifyDataSetChanged();
+                        for (TrustedContact contact : upserts) {
+                            applyToLoaded(contact, notify);
+                        }
+                        if (!notify) {
+                            search();
+                        }
                     }
                 });
+            }
+        });
     }
 
-    public void stopListening() {
-        if (registration != null) {
-            registration.remove();
-            registration = null;
+    /**
+     * Updates or inserts a row if it falls within the loaded prefix; rows beyond it are
+     * picked up from the store when their page is read.
+     */
+    private void applyToLoaded(TrustedContact contact, boolean notify) {
+        int index = indexOf(contact.documentId);
+        if (index >= 0) {
+            TrustedContact previous = contacts.get(index);
+            contacts.set(index, contact);
+            contactsVersion++;
+            if (notify && !contact.sameContent(previous)) {
+                notifyItemChanged(index);
+            }
+            return;
+        }
+        int insertAt = -index - 1;
+        if (insertAt < contacts.size() || allLoaded) {
+            contacts.add(insertAt, contact);
+            contactsVersion++;
+            if (notify) {
+                notifyItemInserted(insertAt);
+            }
         }
-        contacts.clear();
-        notifyDataSetChanged();
+    }
+
+    /**
+     * Filters the list to contacts whose name matches {@code text}; an empty query shows the
+     * full list again. Callers debounce keystrokes; matching runs off the main thread.
+     */
+    public void setQuery(String text) {
+        query = text != null ? text : "";
+        if (!ContactSearchIndex.fold(query).isEmpty()) {
+            search();
+        } else if (searchResults != null) {
+            searchGeneration++;
+            showRows(null);
+        }
+    }
+
+    private void search() {
+        final String text = query;
+        final int generation = ++searchGeneration;
+        STORE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!searchIndexBuilt) {
+                    buildSearchIndex();
+                }
+                final List<TrustedContact> results = searchIndex.search(text, MAX_SEARCH_RESULTS);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == searchGeneration) {
+                            showRows(results);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Runs on STORE_EXECUTOR, so no store write can slip between the reads and the first
+     * incremental update.
+     */
+    private void buildSearchIndex() {
+        String afterId = null;
+        List<TrustedContact> batch;
+        do {
+            batch = store.loadPage(currentUserId, afterId, INDEX_BUILD_BATCH);
+            for (TrustedContact contact : batch) {
+                searchIndex.put(contact);
+            }
+            if (!batch.isEmpty()) {
+                afterId = batch.get(batch.size() - 1).documentId;
+            }
+        } while (batch.size() == INDEX_BUILD_BATCH);
+        searchIndexBuilt = true;
+    }
+
+    /**
+     * Switches the shown rows to {@code results}, or back to the contact list for null, and
+     * notifies only the rows that were added, removed, moved or changed. Clearing a search
+     * diffs against every loaded row, so the diff runs on STORE_EXECUTOR over snapshots and
+     * is dispatched on the main thread, unless the rows or the request changed meanwhile.
+     */
+    private void showRows(@Nullable final List<TrustedContact> results) {
+        final int generation = ++rowsGeneration;
+        final int version = contactsVersion;
+        // Only a diff from or to the loaded rows can be invalidated by a change to them
+        final boolean usesContacts = results == null || searchResults == null;
+        final List<TrustedContact> before = new ArrayList<>(shownContacts());
+        final List<TrustedContact> after = new ArrayList<>(results != null ? results : contacts);
+        STORE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                    @Override
+                    public int getOldListSize() {
+                        return before.size();
+                    }
+
+                    @Override
+                    public int getNewListSize() {
+                        return after.size();
+                    }
+
+                    @Override
+                    public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                        return before.get(oldPosition).documentId.equals(after.get(newPosition).documentId);
+                    }
+
+                    @Override
+                    public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                        return after.get(newPosition).sameContent(before.get(oldPosition));
+                    }
+                });
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != rowsGeneration) {
+                            return;
+                        }
+                        if (usesContacts && version != contactsVersion) {
+                            // A snapshot went stale while diffing; diff again against the live rows
+                            showRows(results);
+                            return;
+                        }
+                        searchResults = results;
+                        diff.dispatchUpdatesTo(TrustedContactsAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    private List<TrustedContact> shownContacts() {
+        return searchResults != null ? searchResults : contacts;
+    }
+
+    /**
+     * Binary search by document ID; {@code -(insertion point) - 1} if absent.
+     */
+    private int indexOf(String documentId) {
+        int low = 0;
+        int high = contacts.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = contacts.get(mid).documentId.compareTo(documentId);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
     }
 
     @Override
@@ -87,7 +495,7 @@ public class TrustedContactsAdapter extends RecyclerView.Adapter<TrustedContacts
 
     @Override
     public void onBindViewHolder(TrustedContactViewHolder holder, int position) {
-        final TrustedContact contact = contacts.get(position);
+        final TrustedContact contact = shownContacts().get(position);
         holder.nameTextView.setText(contact.name != null ? contact.name : "Unknown");
 
         holder.ringAlarmButton.setOnClickListener(new View.OnClickListener() {
@@ -98,9 +506,20 @@ public class TrustedContactsAdapter extends RecyclerView.Adapter<TrustedContacts
         });
     }
 
+    @Override
+    public long getItemId(int position) {
+        String documentId = shownContacts().get(position).documentId;
+        Long id = itemIds.get(documentId);
+        if (id == null) {
+            id = nextItemId++;
+            itemIds.put(documentId, id);
+        }
+        return id;
+    }
+
     @Override
     public int getItemCount() {
-        return contacts.size();
+        return shownContacts().size();
     }
 
     private void ringAlarm(String targetUserId) {
@@ -141,14 +560,24 @@ public class TrustedContactsAdapter extends RecyclerView.Adapter<TrustedContacts
     }
 
     static class TrustedContact {
+        final String documentId;
         final String uid;
         final String name;
 
-        TrustedContact(String uid, String name) {
+        TrustedContact(String documentId, String uid, String name) {
+            this.documentId = documentId;
             this.uid = uid;
             this.name = name;
         }
 
+        /**
+         * Whether a row showing {@code other} would look the same.
+         */
+        boolean sameContent(TrustedContact other) {
+            return other != null && uid.equals(other.uid)
+                    && (name == null ? other.name == null : name.equals(other.name));
+        }
+
         static @Nullable TrustedContact from(DocumentSnapshot doc) {
             if (doc == null) return null;
             // Prefer the explicit field; fall back to alternative or document ID
@@ -159,8 +588,11 @@ public class TrustedContactsAdapter extends RecyclerView.Adapter<TrustedContacts
             if (uid == null || uid.isEmpty()) {
                 uid = doc.getId();
             }
+            if (Boolean.TRUE.equals(doc.getBoolean(TrustedContactStore.FIELD_DELETED))) {
+                return null; // tombstone left by a removal
+            }
             String name = doc.getString("name");
-            return new TrustedContact(uid, name);
+            return new TrustedContact(doc.getId(), uid, name);
         }
     }
 }
\ No newline at end of file
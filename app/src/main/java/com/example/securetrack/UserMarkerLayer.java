@@ -0,0 +1,327 @@
+package com.example.securetrack;
+
+import android.content.Context;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps exactly one Marker per user on the map and applies updates in place.
+ * An update for a user that already has a marker moves it and refreshes its text through
+ * setPosition/setTitle/setSnippet, and only touches properties that actually changed, so
+ * live updates neither duplicate markers nor churn add/remove calls.
+ * Contact markers can be grouped by a MarkerClusterer result: a user whose cluster key
+ * changed is shown or hidden, and each cluster gets one count marker tagged with its
+ * MarkerClusterer.Cluster. Icons come from the shared MarkerIconCache.
+ */
+public class UserMarkerLayer {
+
+    // Cluster sizes at or above each threshold share one icon ("10+", "25+", ...)
+    private static final int[] CLUSTER_BUCKETS = {10, 25, 50, 100, 250, 500, 1000};
+
+    private final GoogleMap map;
+    private final MarkerIconCache iconCache;
+    private final Map<String, Marker> markers = new HashMap<>();
+    // Users that are never clustered (the current user)
+    private final Set<String> unclustered = new HashSet<>();
+    // Last applied cluster key per user; absent means not clustered yet
+    private final Map<String, String> clusterKeys = new HashMap<>();
+    private final Map<String, Marker> clusterMarkers = new HashMap<>();
+    private final MarkerAnimator animator = new MarkerAnimator();
+    // Requested avatar key per user, and the users whose marker currently shows it
+    private final Map<String, String> avatarKeys = new HashMap<>();
+    private final Set<String> avatarShown = new HashSet<>();
+
+    public UserMarkerLayer(GoogleMap map, Context context) {
+        this.map = map;
+        this.iconCache = MarkerIconCache.getInstance(context);
+    }
+
+    /**
+     * Creates or updates the marker of a user without motion hints.
+     *
+     * @return true if a new marker was added
+     */
+    public boolean upsert(String userId, LatLng position, String title, String snippet, boolean isCurrentUser) {
+        return upsert(userId, position, title, snippet, isCurrentUser, -1, -1, -1);
+    }
+
+    /**
+     * Creates or updates the marker of a user. Existing visible markers glide to the new
+     * position and, given speed and bearing, keep moving until the next update (see
+     * MarkerAnimator).
+     *
+     * @param speed Meters per second, or negative if unknown
+     * @param bearing Degrees from north, or negative if unknown
+     * @param fixTime Epoch millis of the fix, or -1 if unknown
+     * @return true if a new marker was added
+     */
+    public boolean upsert(String userId, LatLng position, String title, String snippet, boolean isCurrentUser,
+                          double speed, double bearing, long fixTime) {
+        Marker marker = markers.get(userId);
+        if (marker != null) {
+            if (marker.isVisible()) {
+                animator.animateTo(userId, marker, position.latitude, position.longitude, speed, bearing, fixTime);
+            } else {
+                // Hidden in a cluster; nothing to animate
+                animator.jumpTo(userId, marker, position.latitude, position.longitude);
+            }
+            if (!title.equals(marker.getTitle())) {
+                marker.setTitle(title);
+            }
+            setSnippet(marker, snippet);
+            return false;
+        }
+
+        MarkerOptions markerOptions = new MarkerOptions()
+                .position(position)
+                .title(title)
+                .snippet(snippet)
+                .icon(defaultIcon(isCurrentUser));
+        marker = map.addMarker(markerOptions);
+        if (marker != null) {
+            marker.setTag(userId);
+            markers.put(userId, marker);
+            if (isCurrentUser) {
+                unclustered.add(userId);
+            }
+            avatarKeys.remove(userId);
+            avatarShown.remove(userId);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Updates a user's snippet if it changed.
+     */
+    public void setSnippet(String userId, String snippet) {
+        Marker marker = markers.get(userId);
+        if (marker != null) {
+            setSnippet(marker, snippet);
+        }
+    }
+
+    private static void setSnippet(Marker marker, String snippet) {
+        if (!snippet.equals(marker.getSnippet())) {
+            marker.setSnippet(snippet);
+            if (marker.isInfoWindowShown()) {
+                // Re-show so the open info window picks up the new text
+                marker.showInfoWindow();
+            }
+        }
+    }
+
+    public void remove(String userId) {
+        Marker marker = markers.remove(userId);
+        if (marker != null) {
+            marker.remove();
+        }
+        animator.remove(userId);
+        avatarKeys.remove(userId);
+        avatarShown.remove(userId);
+        unclustered.remove(userId);
+        clusterKeys.remove(userId);
+    }
+
+    /**
+     * Removes the markers of every user not in {@code userIds}.
+     *
+     * @return IDs of the removed users
+     */
+    public List<String> retainOnly(Collection<String> userIds) {
+        List<String> removed = new ArrayList<>();
+        Iterator<Map.Entry<String, Marker>> iterator = markers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Marker> entry = iterator.next();
+            if (!userIds.contains(entry.getKey())) {
+                entry.getValue().remove();
+                iterator.remove();
+                removed.add(entry.getKey());
+            }
+        }
+        for (String userId : removed) {
+            animator.remove(userId);
+            avatarKeys.remove(userId);
+            avatarShown.remove(userId);
+            unclustered.remove(userId);
+            clusterKeys.remove(userId);
+        }
+        return removed;
+    }
+
+    /**
+     * Shows a user's avatar instead of the default pin once it is decoded; a cached avatar is
+     * applied immediately. Passing a null URL reverts to the pin.
+     *
+     * @param avatarVersion Version that changes whenever the image does, or -1 to key by URL
+     */
+    public void setAvatar(final String userId, String avatarUrl, long avatarVersion) {
+        Marker marker = markers.get(userId);
+        if (marker == null) {
+            return;
+        }
+        if (avatarUrl == null) {
+            avatarKeys.remove(userId);
+            if (avatarShown.remove(userId)) {
+                marker.setIcon(defaultIcon(unclustered.contains(userId)));
+                marker.setAnchor(0.5f, 1f);
+            }
+            return;
+        }
+        String key = MarkerIconCache.avatarKey(userId, avatarUrl, avatarVersion);
+        if (key.equals(avatarKeys.get(userId))) {
+            return;
+        }
+        avatarKeys.put(userId, key);
+        BitmapDescriptor icon = iconCache.getAvatar(key, avatarUrl, new MarkerIconCache.AvatarCallback() {
+            @Override
+            public void onAvatarReady(String readyKey, BitmapDescriptor readyIcon) {
+                if (readyKey.equals(avatarKeys.get(userId))) {
+                    showAvatar(userId, readyIcon);
+                }
+            }
+
+            @Override
+            public void onAvatarFailed(String failedKey) {
+                // Forget the request so the next update for this user tries again
+                if (failedKey.equals(avatarKeys.get(userId))) {
+                    avatarKeys.remove(userId);
+                }
+            }
+        });
+        if (icon != null) {
+            showAvatar(userId, icon);
+        }
+    }
+
+    private void showAvatar(String userId, BitmapDescriptor icon) {
+        Marker marker = markers.get(userId);
+        if (marker != null) {
+            marker.setIcon(icon);
+            marker.setAnchor(0.5f, 0.5f);
+            avatarShown.add(userId);
+        }
+    }
+
+    private BitmapDescriptor defaultIcon(boolean isCurrentUser) {
+        // Use different colors for current user vs trusted contacts
+        return iconCache.defaultMarker(isCurrentUser
+                ? BitmapDescriptorFactory.HUE_BLUE
+                : BitmapDescriptorFactory.HUE_RED);
+    }
+
+    /**
+     * Applies a clustering result. Only users whose cluster key changed since the previous
+     * result are shown or hidden, and cluster markers are moved or re-iconed in place.
+     */
+    public void applyClusters(MarkerClusterer.Result result) {
+        for (Map.Entry<String, Marker> entry : markers.entrySet()) {
+            String userId = entry.getKey();
+            if (unclustered.contains(userId)) {
+                continue;
+            }
+            // Users outside the viewport keep their last state until they come back into view
+            String key = result.clusterKeyByUser.get(userId);
+            if (key == null || key.equals(clusterKeys.get(userId))) {
+                continue;
+            }
+            clusterKeys.put(userId, key);
+            boolean visible = !result.isClustered(userId);
+            if (entry.getValue().isVisible() != visible) {
+                entry.getValue().setVisible(visible);
+            }
+        }
+
+        Iterator<Map.Entry<String, Marker>> iterator = clusterMarkers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Marker> entry = iterator.next();
+            if (!result.clusters.containsKey(entry.getKey())) {
+                entry.getValue().remove();
+                iterator.remove();
+            }
+        }
+        for (Map.Entry<String, MarkerClusterer.Cluster> entry : result.clusters.entrySet()) {
+            MarkerClusterer.Cluster cluster = entry.getValue();
+            LatLng position = new LatLng(cluster.latitude, cluster.longitude);
+            Marker marker = clusterMarkers.get(entry.getKey());
+            if (marker == null) {
+                marker = map.addMarker(new MarkerOptions()
+                        .position(position)
+                        .anchor(0.5f, 0.5f)
+                        .icon(clusterIcon(cluster.size)));
+                if (marker != null) {
+                    marker.setTag(cluster);
+                    clusterMarkers.put(entry.getKey(), marker);
+                }
+                continue;
+            }
+            MarkerClusterer.Cluster previous = (MarkerClusterer.Cluster) marker.getTag();
+            if (previous == null || previous.latitude != cluster.latitude
+                    || previous.longitude != cluster.longitude) {
+                marker.setPosition(position);
+            }
+            if (previous == null || !clusterLabel(previous.size).equals(clusterLabel(cluster.size))) {
+                marker.setIcon(clusterIcon(cluster.size));
+            }
+            marker.setTag(cluster);
+        }
+    }
+
+    public Marker get(String userId) {
+        return markers.get(userId);
+    }
+
+    public void clear() {
+        for (Marker marker : markers.values()) {
+            marker.remove();
+        }
+        markers.clear();
+        for (Marker marker : clusterMarkers.values()) {
+            marker.remove();
+        }
+        clusterMarkers.clear();
+        animator.clear();
+        avatarKeys.clear();
+        avatarShown.clear();
+        unclustered.clear();
+        clusterKeys.clear();
+    }
+
+    /**
+     * Stops marker animation while the map is not visible.
+     */
+    public void pauseAnimations() {
+        animator.pause();
+    }
+
+    public void resumeAnimations() {
+        animator.resume();
+    }
+
+    private static String clusterLabel(int size) {
+        for (int i = CLUSTER_BUCKETS.length - 1; i >= 0; i--) {
+            if (size >= CLUSTER_BUCKETS[i]) {
+                return CLUSTER_BUCKETS[i] + "+";
+            }
+        }
+        return String.valueOf(size);
+    }
+
+    private BitmapDescriptor clusterIcon(int size) {
+        return iconCache.clusterIcon(clusterLabel(size));
+    }
+}
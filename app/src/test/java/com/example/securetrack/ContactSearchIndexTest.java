@@ -0,0 +1,112 @@
+package com.example.securetrack;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContactSearchIndexTest {
+
+    private final ContactSearchIndex index = new ContactSearchIndex();
+
+    @Before
+    public void setUp() {
+        put("c1", "Anna Johnson");
+        put("c2", "John Smith");
+        put("c3", "Jo Ann");
+        put("c4", "Mojo Jojo");
+        put("c5", "Zoë  Ångström");
+        put("c6", "Bob Ross");
+    }
+
+    private void put(String documentId, String name) {
+        index.put(new TrustedContactsAdapter.TrustedContact(documentId, "uid-" + documentId, name));
+    }
+
+    private List<String> names(String query) {
+        List<String> names = new ArrayList<>();
+        for (TrustedContactsAdapter.TrustedContact contact : index.search(query, 100)) {
+            names.add(contact.name);
+        }
+        return names;
+    }
+
+    @Test
+    public void foldStripsAccentsCaseAndExtraWhitespace() {
+        assertEquals("zoe angstrom", ContactSearchIndex.fold("  Zoë \t Ångström "));
+        assertEquals("", ContactSearchIndex.fold(null));
+    }
+
+    @Test
+    public void queryMatchesAtAnyWordStart() {
+        assertEquals(Arrays.asList("Anna Johnson", "Jo Ann", "John Smith", "Mojo Jojo"), names("jo"));
+        assertEquals(Arrays.asList("John Smith"), names("smi"));
+    }
+
+    @Test
+    public void queryDoesNotMatchInsideAWord() {
+        assertTrue(names("ohn").isEmpty());
+        assertTrue(names("ojo").isEmpty());
+        assertEquals(Arrays.asList("John Smith"), names("s"));
+    }
+
+    @Test
+    public void accentsAndCaseAreIgnored() {
+        assertEquals(Arrays.asList("Zoë  Ångström"), names("ANGS"));
+        assertEquals(Arrays.asList("Zoë  Ångström"), names("zoë"));
+    }
+
+    @Test
+    public void queryMaySpanWords() {
+        assertEquals(Arrays.asList("Jo Ann"), names("jo a"));
+        assertEquals(Arrays.asList("Anna Johnson"), names("anna jo"));
+    }
+
+    @Test
+    public void eachExtraCharacterOnlyNarrows() {
+        String query = "johnson";
+        List<String> previous = names(query.substring(0, 1));
+        for (int length = 2; length <= query.length(); length++) {
+            List<String> current = names(query.substring(0, length));
+            assertTrue(query.substring(0, length) + " widened the results", previous.containsAll(current));
+            previous = current;
+        }
+        assertEquals(Arrays.asList("Anna Johnson"), previous);
+    }
+
+    @Test
+    public void putReindexesAndRemoveForgets() {
+        put("c2", "Jane Smith");
+        assertEquals(Arrays.asList("Anna Johnson", "Jo Ann", "Mojo Jojo"), names("jo"));
+        assertEquals(Arrays.asList("Jane Smith"), names("ja"));
+
+        index.remove("c3");
+        index.remove("missing");
+        assertEquals(Arrays.asList("Anna Johnson", "Mojo Jojo"), names("jo"));
+        assertEquals(5, index.size());
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertTrue(names("jo").isEmpty());
+    }
+
+    @Test
+    public void limitKeepsTheFirstNamesInOrder() {
+        List<TrustedContactsAdapter.TrustedContact> results = index.search("jo", 2);
+
+        assertEquals(2, results.size());
+        assertEquals("c1", results.get(0).documentId);
+        assertEquals("c3", results.get(1).documentId);
+    }
+
+    @Test
+    public void blankQueryMatchesNothing() {
+        assertTrue(names("").isEmpty());
+        assertTrue(names("   ").isEmpty());
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.securetrack;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeofenceEngineTest {
+
+    private static final double LATITUDE = 51.5074;
+    private static final double LONGITUDE = -0.1278;
+    private static final long START = 1700000000000L;
+    private static final double EXIT_MARGIN_METERS = 25;
+
+    private final InMemoryPreferences prefs = new InMemoryPreferences();
+    private final List<String> transitions = new ArrayList<>();
+    private final GeofenceEngine.TransitionListener listener = new GeofenceEngine.TransitionListener() {
+        @Override
+        public void onZoneTransition(String zoneId, String zoneName, boolean entered,
+                                     double latitude, double longitude, long time) {
+            transitions.add((entered ? "enter " : "exit ") + zoneId + " @" + time);
+        }
+    };
+
+    private static double north(double meters) {
+        return meters / GeoMath.METERS_PER_DEGREE;
+    }
+
+    private static double east(double meters) {
+        return meters / GeoMath.metersPerDegreeLongitude(LATITUDE);
+    }
+
+    private static LocationBatch fix(double latitude, double longitude, long time) {
+        LocationBatch batch = new LocationBatch(1);
+        batch.add(latitude, longitude, time, 5f, 1f);
+        return batch;
+    }
+
+    @Test
+    public void gridMatchesBruteForceOverRandomWalk() {
+        Random random = new Random(17);
+        int count = 200;
+        String[] ids = new String[count];
+        String[] names = new String[count];
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        double[] radii = new double[count];
+        // Zones scattered over ~6 km, many overlapping and straddling grid cells
+        for (int i = 0; i < count; i++) {
+            ids[i] = "zone" + i;
+            names[i] = "Zone " + i;
+            latitudes[i] = LATITUDE + north((random.nextDouble() - 0.5) * 6000);
+            longitudes[i] = LONGITUDE + east((random.nextDouble() - 0.5) * 6000);
+            radii[i] = 50 + random.nextDouble() * 1500;
+        }
+        GeofenceEngine engine = new GeofenceEngine(prefs, listener);
+        engine.setZones(ids.clone(), names.clone(), latitudes.clone(), longitudes.clone(), radii.clone());
+
+        boolean[] inside = new boolean[count];
+        List<String> expected = new ArrayList<>();
+        double latitude = LATITUDE;
+        double longitude = LONGITUDE;
+        for (int step = 0; step < 3000; step++) {
+            latitude += north(random.nextGaussian() * 40);
+            longitude += east(random.nextGaussian() * 40);
+            long time = START + step * 5000L;
+
+            for (int zone = 0; zone < count; zone++) {
+                double distance = GeoMath.distanceMeters(latitudes[zone], longitudes[zone], latitude, longitude);
+                if (inside[zone] && distance > radii[zone] + EXIT_MARGIN_METERS) {
+                    inside[zone] = false;
+                    expected.add("exit " + ids[zone] + " @" + time);
+                }
+            }
+            for (int zone = 0; zone < count; zone++) {
+                double distance = GeoMath.distanceMeters(latitudes[zone], longitudes[zone], latitude, longitude);
+                if (!inside[zone] && distance <= radii[zone]) {
+                    inside[zone] = true;
+                    expected.add("enter " + ids[zone] + " @" + time);
+                }
+            }
+            engine.evaluate(fix(latitude, longitude, time));
+        }
+
+        assertTrue("walk produced only " + expected.size() + " transitions", expected.size() > 100);
+        assertEquals(expected, transitions);
+    }
+
+    @Test
+    public void wobbleOnTheBorderDoesNotFlap() {
+        GeofenceEngine engine = new GeofenceEngine(prefs, listener);
+        engine.setZones(new String[]{"home"}, new String[]{"Home"},
+                new double[]{LATITUDE}, new double[]{LONGITUDE}, new double[]{100});
+
+        engine.evaluate(fix(LATITUDE + north(99), LONGITUDE, START));
+        engine.evaluate(fix(LATITUDE + north(110), LONGITUDE, START + 5000));
+        engine.evaluate(fix(LATITUDE + north(99), LONGITUDE, START + 10000));
+        engine.evaluate(fix(LATITUDE + north(130), LONGITUDE, START + 15000));
+
+        List<String> expected = new ArrayList<>();
+        expected.add("enter home @" + START);
+        expected.add("exit home @" + (START + 15000));
+        assertEquals(expected, transitions);
+    }
+
+    @Test
+    public void restartInsideZoneDoesNotRepeatEnter() {
+        String[] ids = {"home", "work"};
+        String[] names = {"Home", "Work"};
+        double[] latitudes = {LATITUDE, LATITUDE + north(5000)};
+        double[] longitudes = {LONGITUDE, LONGITUDE};
+        double[] radii = {100, 100};
+        GeofenceEngine engine = new GeofenceEngine(prefs, listener);
+        engine.setZones(ids.clone(), names.clone(), latitudes.clone(), longitudes.clone(), radii.clone());
+        engine.evaluate(fix(LATITUDE, LONGITUDE, START));
+        assertEquals(1, transitions.size());
+
+        // A new engine on the same preferences, as after the service is restarted
+        GeofenceEngine restarted = new GeofenceEngine(prefs, listener);
+        restarted.setZones(ids.clone(), names.clone(), latitudes.clone(), longitudes.clone(), radii.clone());
+        restarted.evaluate(fix(LATITUDE, LONGITUDE, START + 60000));
+        assertEquals(1, transitions.size());
+
+        restarted.evaluate(fix(LATITUDE + north(5000), LONGITUDE, START + 120000));
+        assertEquals("exit home @" + (START + 120000), transitions.get(1));
+        assertEquals("enter work @" + (START + 120000), transitions.get(2));
+    }
+
+    @Test
+    public void removedZoneIsForgotten() {
+        GeofenceEngine engine = new GeofenceEngine(prefs, listener);
+        engine.setZones(new String[]{"home"}, new String[]{"Home"},
+                new double[]{LATITUDE}, new double[]{LONGITUDE}, new double[]{100});
+        engine.evaluate(fix(LATITUDE, LONGITUDE, START));
+
+        engine.setZones(new String[0], new String[0], new double[0], new double[0], new double[0]);
+        engine.setZones(new String[]{"home"}, new String[]{"Home"},
+                new double[]{LATITUDE}, new double[]{LONGITUDE}, new double[]{100});
+        engine.evaluate(fix(LATITUDE, LONGITUDE, START + 5000));
+
+        assertEquals(2, transitions.size());
+        assertEquals("enter home @" + (START + 5000), transitions.get(1));
+    }
+
+    @Test
+    public void largeAndPolarZonesAreCheckedWithoutTheGrid() {
+        GeofenceEngine engine = new GeofenceEngine(prefs, listener);
+        // A 100 km region and a small zone next to the pole, where longitude cells are tiny
+        engine.setZones(new String[]{"region", "station"}, new String[]{"Region", "Station"},
+                new double[]{LATITUDE, 89.99}, new double[]{LONGITUDE, 0}, new double[]{100000, 500});
+
+        engine.evaluate(fix(LATITUDE + north(90000), LONGITUDE, START));
+        engine.evaluate(fix(89.99, 10, START + 5000));
+
+        List<String> expected = new ArrayList<>();
+        expected.add("enter region @" + START);
+        expected.add("exit region @" + (START + 5000));
+        expected.add("enter station @" + (START + 5000));
+        assertEquals(expected, transitions);
+    }
+
+    @Test
+    public void zoneStraddlingTheAntimeridianIsEnteredFromBothSides() {
+        GeofenceEngine engine = new GeofenceEngine(prefs, listener);
+        engine.setZones(new String[]{"fiji"}, new String[]{"Fiji"},
+                new double[]{-17.0}, new double[]{179.999}, new double[]{1000});
+
+        engine.evaluate(fix(-17.0, -179.998, START));
+        engine.evaluate(fix(-17.0, 179.0, START + 5000));
+        engine.evaluate(fix(-17.0, 179.997, START + 10000));
+
+        List<String> expected = new ArrayList<>();
+        expected.add("enter fiji @" + START);
+        expected.add("exit fiji @" + (START + 5000));
+        expected.add("enter fiji @" + (START + 10000));
+        assertEquals(expected, transitions);
+    }
+
+    /**
+     * Just enough of SharedPreferences for the engine's string set.
+     */
+    private static class InMemoryPreferences implements SharedPreferences {
+
+        private final Map<String, Object> values = new HashMap<>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return values.containsKey(key) ? (Long) values.get(key) : defValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return values.containsKey(key) ? (Float) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new Editor() {
+                private final Map<String, Object> pending = new HashMap<>();
+
+                @Override
+                public Editor putString(String key, String value) {
+                    pending.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putStringSet(String key, Set<String> values) {
+                    pending.put(key, new HashSet<>(values));
+                    return this;
+                }
+
+                @Override
+                public Editor putInt(String key, int value) {
+                    pending.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putLong(String key, long value) {
+                    pending.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putFloat(String key, float value) {
+                    pending.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putBoolean(String key, boolean value) {
+                    pending.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor remove(String key) {
+                    pending.put(key, null);
+                    return this;
+                }
+
+                @Override
+                public Editor clear() {
+                    values.clear();
+                    return this;
+                }
+
+                @Override
+                public boolean commit() {
+                    for (Map.Entry<String, Object> entry : pending.entrySet()) {
+                        if (entry.getValue() == null) {
+                            values.remove(entry.getKey());
+                        } else {
+                            values.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                    return true;
+                }
+
+                @Override
+                public void apply() {
+                    commit();
+                }
+            };
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+    }
+}
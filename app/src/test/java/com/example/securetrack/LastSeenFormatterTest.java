@@ -0,0 +1,49 @@
+package com.example.securetrack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LastSeenFormatterTest {
+
+    private static final long NOW = 1700000000000L;
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+
+    private static long untilChange(long age) {
+        return LastSeenFormatter.millisUntilChange(NOW - age, NOW);
+    }
+
+    @Test
+    public void justNowChangesWhenTheFirstMinuteIsUp() {
+        assertEquals(MINUTE, untilChange(0));
+        assertEquals(30 * SECOND, untilChange(30 * SECOND));
+        assertEquals(1, untilChange(MINUTE - 1));
+    }
+
+    @Test
+    public void minutesChangeOnEachMinuteBoundary() {
+        assertEquals(MINUTE, untilChange(MINUTE));
+        assertEquals(15 * SECOND, untilChange(5 * MINUTE + 45 * SECOND));
+        assertEquals(30 * SECOND, untilChange(59 * MINUTE + 30 * SECOND));
+    }
+
+    @Test
+    public void hoursChangeOnEachHourBoundary() {
+        assertEquals(HOUR, untilChange(HOUR));
+        assertEquals(30 * MINUTE, untilChange(HOUR + 30 * MINUTE));
+        assertEquals(1, untilChange(12 * HOUR - 1));
+    }
+
+    @Test
+    public void absoluteTimeNeverChanges() {
+        assertEquals(Long.MAX_VALUE, untilChange(12 * HOUR));
+        assertEquals(Long.MAX_VALUE, untilChange(30 * 24 * HOUR));
+    }
+
+    @Test
+    public void futureTimeCountsAsJustNow() {
+        assertEquals(MINUTE, untilChange(-5 * MINUTE));
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.securetrack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocationFilterTest {
+
+    private static final double LATITUDE = 48.8566;
+    private static final double LONGITUDE = 2.3522;
+    private static final long START = 1700000000000L;
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HEARTBEAT = 5 * MINUTE;
+
+    private final LocationFilter filter = new LocationFilter(25f, 200f, HEARTBEAT);
+
+    private static double north(double meters) {
+        return LATITUDE + meters / GeoMath.METERS_PER_DEGREE;
+    }
+
+    private static LocationBatch batchOf(double latitude, long time, float accuracy) {
+        LocationBatch batch = new LocationBatch(1);
+        batch.add(latitude, LONGITUDE, time, accuracy, 0f);
+        return batch;
+    }
+
+    @Test
+    public void firstFixIsAccepted() {
+        LocationBatch batch = batchOf(LATITUDE, START, 10f);
+
+        filter.apply(batch);
+
+        assertEquals(1, batch.size());
+        assertEquals(-1, filter.getHeartbeatTime());
+    }
+
+    @Test
+    public void fixWithinMinimumDisplacementIsDropped() {
+        filter.apply(batchOf(LATITUDE, START, 5f));
+        LocationBatch batch = batchOf(north(15), START + 10000, 5f);
+
+        filter.apply(batch);
+
+        assertEquals(0, batch.size());
+    }
+
+    @Test
+    public void fixWithinItsOwnAccuracyIsDropped() {
+        filter.apply(batchOf(LATITUDE, START, 5f));
+        LocationBatch batch = batchOf(north(40), START + 10000, 60f);
+
+        filter.apply(batch);
+
+        assertEquals(0, batch.size());
+    }
+
+    @Test
+    public void inaccurateFixIsDropped() {
+        LocationBatch batch = batchOf(LATITUDE, START, 250f);
+
+        filter.apply(batch);
+
+        assertEquals(0, batch.size());
+    }
+
+    @Test
+    public void acceptedFixesKeepTheirOrder() {
+        LocationBatch batch = new LocationBatch(4);
+        batch.add(LATITUDE, LONGITUDE, START, 5f, 0f);
+        batch.add(north(10), LONGITUDE, START + 1000, 5f, 0f);
+        batch.add(north(50), LONGITUDE, START + 2000, 5f, 0f);
+        batch.add(north(100), LONGITUDE, START + 3000, 5f, 0f);
+
+        filter.apply(batch);
+
+        assertEquals(3, batch.size());
+        assertEquals(START, batch.getTime(0));
+        assertEquals(START + 2000, batch.getTime(1));
+        assertEquals(START + 3000, batch.getTime(2));
+        assertEquals(north(100), batch.getLatitude(2), 1e-12);
+    }
+
+    @Test
+    public void droppedBatchSignalsHeartbeatOncePerInterval() {
+        filter.apply(batchOf(LATITUDE, START, 5f));
+
+        filter.apply(batchOf(LATITUDE, START + MINUTE, 5f));
+        assertEquals(-1, filter.getHeartbeatTime());
+
+        filter.apply(batchOf(LATITUDE, START + HEARTBEAT, 5f));
+        assertEquals(START + HEARTBEAT, filter.getHeartbeatTime());
+
+        filter.apply(batchOf(LATITUDE, START + HEARTBEAT + MINUTE, 5f));
+        assertEquals(-1, filter.getHeartbeatTime());
+    }
+
+    @Test
+    public void acceptedFixDefersTheHeartbeat() {
+        filter.apply(batchOf(LATITUDE, START, 5f));
+        filter.apply(batchOf(north(100), START + 4 * MINUTE, 5f));
+
+        filter.apply(batchOf(north(100), START + HEARTBEAT, 5f));
+
+        assertEquals(-1, filter.getHeartbeatTime());
+    }
+
+    @Test
+    public void timerHeartbeatIsDueWithoutAnyFixes() {
+        assertTrue(filter.heartbeatDue(START));
+        assertFalse(filter.heartbeatDue(START + MINUTE));
+        assertEquals(START + HEARTBEAT, filter.getNextHeartbeatTime());
+        assertTrue(filter.heartbeatDue(START + HEARTBEAT));
+    }
+
+    @Test
+    public void timerHeartbeatWaitsForIntervalAfterLastAcceptedFix() {
+        filter.apply(batchOf(LATITUDE, START, 5f));
+
+        assertFalse(filter.heartbeatDue(START + 4 * MINUTE));
+        assertEquals(START + HEARTBEAT, filter.getNextHeartbeatTime());
+        assertTrue(filter.heartbeatDue(START + HEARTBEAT));
+        assertEquals(START + 2 * HEARTBEAT, filter.getNextHeartbeatTime());
+    }
+
+    @Test
+    public void timerAndBatchHeartbeatsDoNotDoubleUp() {
+        filter.apply(batchOf(LATITUDE, START, 5f));
+        assertTrue(filter.heartbeatDue(START + HEARTBEAT));
+
+        filter.apply(batchOf(LATITUDE, START + HEARTBEAT + MINUTE, 5f));
+
+        assertEquals(-1, filter.getHeartbeatTime());
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.securetrack;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocationSmootherTest {
+
+    private static final double LATITUDE = 52.52;
+    private static final double LONGITUDE = 13.405;
+    private static final long START = 1700000000000L;
+
+    private static double north(double meters) {
+        return meters / GeoMath.METERS_PER_DEGREE;
+    }
+
+    private static double east(double meters) {
+        return meters / GeoMath.metersPerDegreeLongitude(LATITUDE);
+    }
+
+    @Test
+    public void firstFixPassesThroughUnchanged() {
+        LocationSmoother smoother = new LocationSmoother();
+        LocationBatch batch = new LocationBatch(1);
+        batch.add(LATITUDE, LONGITUDE, START, 12f, 0f);
+
+        smoother.apply(batch);
+
+        assertEquals(1, batch.size());
+        assertEquals(LATITUDE, batch.getLatitude(0), 0);
+        assertEquals(LONGITUDE, batch.getLongitude(0), 0);
+        assertEquals(12f, batch.getAccuracy(0), 1e-4f);
+        assertEquals(START, batch.getTime(0));
+    }
+
+    @Test
+    public void jitterAroundParkedPhoneIsReduced() {
+        LocationSmoother smoother = new LocationSmoother();
+        Random random = new Random(42);
+        LocationBatch batch = new LocationBatch(120);
+        double rawError = 0;
+        // One fix a second, scattered by 10 m on each axis
+        for (int i = 0; i < 120; i++) {
+            double latitude = LATITUDE + north(random.nextGaussian() * 10);
+            double longitude = LONGITUDE + east(random.nextGaussian() * 10);
+            rawError += GeoMath.distanceMeters(LATITUDE, LONGITUDE, latitude, longitude);
+            batch.add(latitude, longitude, START + i * 1000L, 10f, 0f);
+        }
+
+        smoother.apply(batch);
+
+        assertEquals(120, batch.size());
+        double smoothedError = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            smoothedError += GeoMath.distanceMeters(LATITUDE, LONGITUDE,
+                    batch.getLatitude(i), batch.getLongitude(i));
+            assertTrue(batch.getAccuracy(i) <= 10f);
+        }
+        assertTrue("smoothed error " + smoothedError + " vs raw " + rawError,
+                smoothedError < rawError * 0.7);
+    }
+
+    @Test
+    public void steadyMovementIsTracked() {
+        LocationSmoother smoother = new LocationSmoother();
+        LocationBatch batch = new LocationBatch(30);
+        // Walking north at 1.5 m/s, one exact fix every 5 s
+        for (int i = 0; i < 30; i++) {
+            batch.add(LATITUDE + north(i * 7.5), LONGITUDE, START + i * 5000L, 5f, 1.5f);
+        }
+
+        smoother.apply(batch);
+
+        assertEquals(30, batch.size());
+        int last = batch.size() - 1;
+        double error = GeoMath.distanceMeters(LATITUDE + north(29 * 7.5), LONGITUDE,
+                batch.getLatitude(last), batch.getLongitude(last));
+        assertTrue("estimate lags " + error + " m behind", error < 3);
+    }
+
+    @Test
+    public void outlierIsRemovedAndLaterFixesKept() {
+        LocationSmoother smoother = new LocationSmoother();
+        LocationBatch batch = new LocationBatch(12);
+        for (int i = 0; i < 10; i++) {
+            batch.add(LATITUDE, LONGITUDE, START + i * 5000L, 5f, 0f);
+        }
+        batch.add(LATITUDE + north(2000), LONGITUDE, START + 50000L, 5f, 0f);
+        batch.add(LATITUDE, LONGITUDE, START + 55000L, 5f, 0f);
+
+        smoother.apply(batch);
+
+        assertEquals(11, batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            assertTrue(GeoMath.distanceMeters(LATITUDE, LONGITUDE,
+                    batch.getLatitude(i), batch.getLongitude(i)) < 1);
+        }
+        assertEquals(START + 55000L, batch.getTime(10));
+    }
+
+    @Test
+    public void repeatedRejectionsResetOntoTheNewPosition() {
+        LocationSmoother smoother = new LocationSmoother();
+        LocationBatch batch = new LocationBatch(14);
+        for (int i = 0; i < 10; i++) {
+            batch.add(LATITUDE, LONGITUDE, START + i * 5000L, 5f, 0f);
+        }
+        double farLatitude = LATITUDE + north(2000);
+        for (int i = 10; i < 14; i++) {
+            batch.add(farLatitude, LONGITUDE, START + i * 5000L, 5f, 0f);
+        }
+
+        smoother.apply(batch);
+
+        // Three fixes are rejected, the fourth is taken as the new starting point
+        assertEquals(11, batch.size());
+        assertEquals(farLatitude, batch.getLatitude(10), 1e-9);
+        assertEquals(START + 13 * 5000L, batch.getTime(10));
+    }
+
+    @Test
+    public void longGapStartsOver() {
+        LocationSmoother smoother = new LocationSmoother();
+        LocationBatch batch = new LocationBatch(2);
+        batch.add(LATITUDE, LONGITUDE, START, 5f, 0f);
+        smoother.apply(batch);
+
+        batch.clear();
+        double farLatitude = LATITUDE + north(5000);
+        batch.add(farLatitude, LONGITUDE, START + 11 * 60 * 1000L, 5f, 0f);
+        smoother.apply(batch);
+
+        assertEquals(1, batch.size());
+        assertEquals(farLatitude, batch.getLatitude(0), 1e-9);
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.securetrack;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MarkerClustererTest {
+
+    private static final float ZOOM = 12f;
+
+    /**
+     * Runs worker tasks on the calling thread so the test can inspect results directly.
+     */
+    private static class DirectExecutorService extends AbstractExecutorService {
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    private static MarkerClusterer newClusterer() {
+        return new MarkerClusterer(new MarkerClusterer.Listener() {
+            @Override
+            public void onClustersChanged(MarkerClusterer.Result result) {
+            }
+        }, new DirectExecutorService(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @Test
+    public void everyMemberOfAClusterIsHidden() {
+        MarkerClusterer clusterer = newClusterer();
+        // Three friends in one building, one across town
+        clusterer.update("alice", 40.7128, -74.0060);
+        clusterer.update("bob", 40.7129, -74.0061);
+        clusterer.update("carol", 40.7127, -74.0059);
+        clusterer.update("dave", 40.80, -73.90);
+
+        MarkerClusterer.Result result = clusterer.compute(ZOOM, 0, 0, 1, 1);
+
+        assertEquals(1, result.clusters.size());
+        String key = result.clusterKeyByUser.get("alice");
+        assertTrue(key.startsWith(MarkerClusterer.CLUSTER_KEY_PREFIX));
+        assertEquals(3, result.clusters.get(key).size);
+        assertTrue(result.isClustered("alice"));
+        assertTrue(result.isClustered("bob"));
+        assertTrue(result.isClustered("carol"));
+        assertFalse(result.isClustered("dave"));
+        assertEquals("dave", result.clusterKeyByUser.get("dave"));
+    }
+
+    @Test
+    public void randomPointsAreEitherClusteredOrShownAlone() {
+        MarkerClusterer clusterer = newClusterer();
+        Random random = new Random(23);
+        int count = 300;
+        for (int i = 0; i < count; i++) {
+            clusterer.update("user" + i, 48.8 + random.nextDouble() * 0.2, 2.2 + random.nextDouble() * 0.3);
+        }
+
+        MarkerClusterer.Result result = clusterer.compute(ZOOM, 0, 0, 1, 1);
+
+        Map<String, Integer> members = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String userId = "user" + i;
+            String key = result.clusterKeyByUser.get(userId);
+            assertNotNull(userId + " missing from the result", key);
+            assertFalse("cluster key collides with " + key, result.clusters.containsKey(userId));
+            if (result.isClustered(userId)) {
+                Integer seen = members.get(key);
+                members.put(key, seen == null ? 1 : seen + 1);
+            } else {
+                assertEquals(userId, key);
+            }
+        }
+        assertFalse(result.clusters.isEmpty());
+        for (Map.Entry<String, MarkerClusterer.Cluster> entry : result.clusters.entrySet()) {
+            assertEquals(entry.getValue().size, (int) members.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void removedUserLeavesTheCluster() {
+        MarkerClusterer clusterer = newClusterer();
+        clusterer.update("alice", 40.7128, -74.0060);
+        clusterer.update("bob", 40.7129, -74.0061);
+
+        clusterer.remove("bob");
+        MarkerClusterer.Result result = clusterer.compute(ZOOM, 0, 0, 1, 1);
+
+        assertTrue(result.clusters.isEmpty());
+        assertFalse(result.isClustered("alice"));
+        assertFalse(result.clusterKeyByUser.containsKey("bob"));
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.securetrack;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PointQuadTreeTest {
+
+    private static Set<Integer> search(PointQuadTree tree, double minX, double minY, double maxX, double maxY) {
+        final Set<Integer> found = new HashSet<>();
+        tree.search(minX, minY, maxX, maxY, new PointQuadTree.Visitor() {
+            @Override
+            public void visit(int id, double x, double y) {
+                assertTrue("visited " + id + " twice", found.add(id));
+            }
+        });
+        return found;
+    }
+
+    private static Set<Integer> bruteForce(double[] xs, double[] ys, boolean[] present,
+                                           double minX, double minY, double maxX, double maxY) {
+        Set<Integer> found = new HashSet<>();
+        for (int i = 0; i < xs.length; i++) {
+            if (present[i] && xs[i] >= minX && xs[i] <= maxX && ys[i] >= minY && ys[i] <= maxY) {
+                found.add(i);
+            }
+        }
+        return found;
+    }
+
+    @Test
+    public void rangeQueriesMatchBruteForce() {
+        Random random = new Random(3);
+        int count = 2000;
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        boolean[] present = new boolean[count];
+        PointQuadTree tree = new PointQuadTree();
+        for (int i = 0; i < count; i++) {
+            // Half clustered, as markers around a city are
+            boolean clustered = i % 2 == 0;
+            xs[i] = clustered ? 0.3 + random.nextDouble() * 0.01 : random.nextDouble();
+            ys[i] = clustered ? 0.6 + random.nextDouble() * 0.01 : random.nextDouble();
+            tree.insert(i, xs[i], ys[i]);
+            present[i] = true;
+        }
+        assertEquals(count, tree.size());
+
+        for (int q = 0; q < 200; q++) {
+            double x = random.nextDouble();
+            double y = random.nextDouble();
+            double size = q % 2 == 0 ? random.nextDouble() * 0.02 : random.nextDouble() * 0.5;
+            assertEquals(bruteForce(xs, ys, present, x, y, x + size, y + size),
+                    search(tree, x, y, x + size, y + size));
+        }
+        assertEquals(bruteForce(xs, ys, present, 0.3, 0.6, 0.305, 0.605),
+                search(tree, 0.3, 0.6, 0.305, 0.605));
+    }
+
+    @Test
+    public void removedPointsAreNoLongerFound() {
+        Random random = new Random(5);
+        int count = 500;
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        boolean[] present = new boolean[count];
+        PointQuadTree tree = new PointQuadTree();
+        for (int i = 0; i < count; i++) {
+            xs[i] = random.nextDouble();
+            ys[i] = random.nextDouble();
+            tree.insert(i, xs[i], ys[i]);
+            present[i] = true;
+        }
+        for (int i = 0; i < count; i += 3) {
+            assertTrue(tree.remove(i, xs[i], ys[i]));
+            present[i] = false;
+        }
+        assertFalse(tree.remove(0, xs[0], ys[0]));
+        assertEquals(count - 167, tree.size());
+
+        assertEquals(bruteForce(xs, ys, present, 0, 0, 1, 1), search(tree, 0, 0, 1, 1));
+        assertEquals(bruteForce(xs, ys, present, 0.2, 0.1, 0.7, 0.4), search(tree, 0.2, 0.1, 0.7, 0.4));
+    }
+
+    @Test
+    public void movingAPointIsRemoveThenInsert() {
+        PointQuadTree tree = new PointQuadTree();
+        tree.insert(1, 0.1, 0.1);
+        tree.insert(2, 0.9, 0.9);
+
+        assertTrue(tree.remove(1, 0.1, 0.1));
+        tree.insert(1, 0.8, 0.8);
+
+        assertEquals(new HashSet<>(Arrays.asList(1, 2)), search(tree, 0.5, 0.5, 1, 1));
+        assertTrue(search(tree, 0, 0, 0.5, 0.5).isEmpty());
+    }
+
+    @Test
+    public void manyPointsAtOneSpotAreAllKept() {
+        PointQuadTree tree = new PointQuadTree();
+        for (int i = 0; i < 100; i++) {
+            tree.insert(i, 0.25, 0.75);
+        }
+
+        assertEquals(100, search(tree, 0.25, 0.75, 0.25, 0.75).size());
+        assertTrue(tree.remove(42, 0.25, 0.75));
+        Set<Integer> found = search(tree, 0, 0, 1, 1);
+        assertEquals(99, found.size());
+        assertFalse(found.contains(42));
+    }
+
+    @Test
+    public void pointsOutsideTheUnitSquareAreClamped() {
+        PointQuadTree tree = new PointQuadTree();
+        tree.insert(1, -0.5, 1.5);
+
+        assertEquals(1, search(tree, 0, 1, 0, 1).size());
+        assertTrue(tree.remove(1, -0.5, 1.5));
+        assertEquals(0, tree.size());
+    }
+
+    @Test
+    public void clearEmptiesTheTree() {
+        PointQuadTree tree = new PointQuadTree();
+        for (int i = 0; i < 50; i++) {
+            tree.insert(i, i / 50.0, i / 50.0);
+        }
+
+        tree.clear();
+
+        assertEquals(0, tree.size());
+        assertTrue(search(tree, 0, 0, 1, 1).isEmpty());
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.securetrack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SamplingPolicyTest {
+
+    private static final double LATITUDE = 40.7128;
+    private static final double LONGITUDE = -74.006;
+    private static final long START = 1700000000000L;
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+
+    private static double north(double meters) {
+        return LATITUDE + meters / GeoMath.METERS_PER_DEGREE;
+    }
+
+    /**
+     * Two fixes at the same spot, {@code time} and 10 s later.
+     */
+    private static LocationBatch parked(long time) {
+        LocationBatch batch = new LocationBatch(2);
+        batch.add(LATITUDE, LONGITUDE, time, 10f, 0f);
+        batch.add(LATITUDE, LONGITUDE, time + 10 * SECOND, 10f, 0f);
+        return batch;
+    }
+
+    /**
+     * Three fixes moving north at {@code speed} m/s, 5 s apart.
+     */
+    private static LocationBatch moving(long time, float speed) {
+        LocationBatch batch = new LocationBatch(3);
+        for (int i = 0; i < 3; i++) {
+            batch.add(north(i * 5 * speed), LONGITUDE, time + i * 5 * SECOND, 5f, speed);
+        }
+        return batch;
+    }
+
+    @Test
+    public void singleFixDoesNotClassify() {
+        SamplingPolicy policy = new SamplingPolicy(SamplingPolicy.Mode.WALKING);
+        LocationBatch batch = new LocationBatch(1);
+        batch.add(LATITUDE, LONGITUDE, START, 5f, 20f);
+
+        assertFalse(policy.onBatch(batch));
+        assertEquals(SamplingPolicy.Mode.WALKING, policy.getMode());
+    }
+
+    @Test
+    public void drivingIsAdoptedOnFirstObservation() {
+        SamplingPolicy policy = new SamplingPolicy(SamplingPolicy.Mode.WALKING);
+
+        assertTrue(policy.onBatch(moving(START, 20f)));
+        assertEquals(SamplingPolicy.Mode.DRIVING, policy.getMode());
+    }
+
+    @Test
+    public void stationaryWaitsForMinimumDwell() {
+        SamplingPolicy policy = new SamplingPolicy(SamplingPolicy.Mode.WALKING);
+
+        // Parked from the start: confirmed after three batches, but not before 3 min in the mode,
+        // counted from the end of the first batch
+        long time = START;
+        while (time - START < 3 * MINUTE) {
+            assertFalse("switched early at " + (time - START), policy.onBatch(parked(time)));
+            time += 20 * SECOND;
+        }
+        assertEquals(SamplingPolicy.Mode.WALKING, policy.getMode());
+
+        // The batch ending 3 min after the first one satisfies the dwell time
+        assertTrue(policy.onBatch(parked(time)));
+        assertEquals(SamplingPolicy.Mode.STATIONARY, policy.getMode());
+        assertFalse(policy.onBatch(parked(time + 20 * SECOND)));
+    }
+
+    @Test
+    public void stationaryNeedsThreeConsecutiveObservations() {
+        SamplingPolicy policy = new SamplingPolicy(SamplingPolicy.Mode.WALKING);
+        assertFalse(policy.onBatch(moving(START, 1.5f)));
+        assertEquals(SamplingPolicy.Mode.WALKING, policy.getMode());
+
+        // Long after the walk has left the window, so the dwell time is already met
+        long time = START + 10 * MINUTE;
+        assertFalse(policy.onBatch(parked(time)));
+        assertFalse(policy.onBatch(parked(time + 20 * SECOND)));
+        assertTrue(policy.onBatch(parked(time + 40 * SECOND)));
+        assertEquals(SamplingPolicy.Mode.STATIONARY, policy.getMode());
+    }
+
+    @Test
+    public void departureFromStationaryIsPickedUpImmediately() {
+        SamplingPolicy policy = new SamplingPolicy(SamplingPolicy.Mode.STATIONARY);
+        assertFalse(policy.onBatch(parked(START)));
+
+        // Leaves the window of parked fixes behind within one batch
+        assertTrue(policy.onBatch(moving(START + 6 * MINUTE, 1.5f)));
+        assertEquals(SamplingPolicy.Mode.WALKING, policy.getMode());
+    }
+
+    @Test
+    public void briefStopWhileDrivingKeepsDriving() {
+        SamplingPolicy policy = new SamplingPolicy(SamplingPolicy.Mode.WALKING);
+        assertTrue(policy.onBatch(moving(START, 20f)));
+
+        // A red light: a minute of parked fixes right after driving
+        long time = START + 15 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            LocationBatch stopped = new LocationBatch(2);
+            stopped.add(north(300), LONGITUDE, time, 5f, 0f);
+            stopped.add(north(300), LONGITUDE, time + 10 * SECOND, 5f, 0f);
+            assertFalse(policy.onBatch(stopped));
+            time += 20 * SECOND;
+        }
+        assertEquals(SamplingPolicy.Mode.DRIVING, policy.getMode());
+    }
+}
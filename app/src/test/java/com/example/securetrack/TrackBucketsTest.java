@@ -0,0 +1,77 @@
+package com.example.securetrack;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrackBucketsTest {
+
+    private static final long BUCKET = 1700000100000L - 1700000100000L % TrackBuckets.BUCKET_MILLIS;
+
+    @Test
+    public void bucketStartIsAlignedToBucketBoundaries() {
+        assertEquals(BUCKET, TrackBuckets.bucketStart(BUCKET));
+        assertEquals(BUCKET, TrackBuckets.bucketStart(BUCKET + 1));
+        assertEquals(BUCKET, TrackBuckets.bucketStart(BUCKET + TrackBuckets.BUCKET_MILLIS - 1));
+        assertEquals(BUCKET + TrackBuckets.BUCKET_MILLIS,
+                TrackBuckets.bucketStart(BUCKET + TrackBuckets.BUCKET_MILLIS));
+        assertEquals(0, BUCKET % TrackBuckets.BUCKET_MILLIS);
+    }
+
+    @Test
+    public void bucketStartRoundsNegativeTimesDown() {
+        assertEquals(-TrackBuckets.BUCKET_MILLIS, TrackBuckets.bucketStart(-1));
+        assertEquals(0, TrackBuckets.bucketStart(0));
+    }
+
+    @Test
+    public void documentIdIsTheBucketStart() {
+        assertEquals(String.valueOf(BUCKET), TrackBuckets.documentId(BUCKET));
+    }
+
+    @Test
+    public void chunkRoundTripsToE7Precision() {
+        Random random = new Random(11);
+        List<LocationJournal.Entry> entries = new ArrayList<>();
+        long time = BUCKET + 4000;
+        double latitude = -33.8688;
+        double longitude = 151.2093;
+        for (int i = 0; i < 100; i++) {
+            time += 1000 + random.nextInt(8000);
+            latitude += (random.nextDouble() - 0.5) * 1e-3;
+            longitude += (random.nextDouble() - 0.5) * 1e-3;
+            entries.add(new LocationJournal.Entry(i, latitude, longitude, time,
+                    random.nextFloat() * 40f, 1.2f));
+        }
+
+        // Only the middle of the list, as the flusher does when a batch spans two buckets
+        byte[] bytes = TrackBuckets.encodeChunk(entries, 10, 90, BUCKET).toBytes();
+
+        TrackCodec.Cursor cursor = new TrackCodec.Cursor();
+        cursor.reset(ByteBuffer.wrap(bytes), 0, bytes.length, BUCKET, 0, 0);
+        for (int i = 10; i < 90; i++) {
+            LocationJournal.Entry entry = entries.get(i);
+            assertTrue(cursor.next());
+            assertEquals(entry.time, cursor.time);
+            assertEquals(entry.latitude, TrackCodec.fromE7(cursor.latitudeE7), 1e-7);
+            assertEquals(entry.longitude, TrackCodec.fromE7(cursor.longitudeE7), 1e-7);
+            assertEquals(Math.round(entry.accuracy), cursor.accuracy);
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void emptyRangeEncodesToEmptyChunk() {
+        List<LocationJournal.Entry> entries = new ArrayList<>();
+        entries.add(new LocationJournal.Entry(1, 1, 1, BUCKET, 5f, 0f));
+
+        assertEquals(0, TrackBuckets.encodeChunk(entries, 1, 1, BUCKET).toBytes().length);
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.securetrack;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrackCodecTest {
+
+    @Test
+    public void e7RoundsToNearest() {
+        assertEquals(525200000, TrackCodec.toE7(52.52));
+        assertEquals(-740060000, TrackCodec.toE7(-74.006));
+        assertEquals(1800000000, TrackCodec.toE7(180));
+        assertEquals(52.52, TrackCodec.fromE7(TrackCodec.toE7(52.52)), 1e-9);
+    }
+
+    @Test
+    public void randomTrackRoundTrips() {
+        Random random = new Random(7);
+        int count = 500;
+        long[] times = new long[count];
+        int[] latitudes = new int[count];
+        int[] longitudes = new int[count];
+        int[] accuracies = new int[count];
+        long time = 1700000000000L;
+        int latitude = TrackCodec.toE7(35.6762);
+        int longitude = TrackCodec.toE7(139.6503);
+        for (int i = 0; i < count; i++) {
+            // Mostly small steps, with the occasional jump and out-of-order time
+            time += random.nextInt(10) == 0 ? -random.nextInt(5000) : random.nextInt(60000);
+            latitude += random.nextInt(10) == 0 ? random.nextInt() / 4 : random.nextInt(2001) - 1000;
+            longitude += random.nextInt(10) == 0 ? random.nextInt() / 4 : random.nextInt(2001) - 1000;
+            times[i] = time;
+            latitudes[i] = latitude;
+            longitudes[i] = longitude;
+            accuracies[i] = random.nextInt(500);
+        }
+
+        long baseTime = 1700000000000L;
+        int baseLatitude = TrackCodec.toE7(35.6762);
+        int baseLongitude = TrackCodec.toE7(139.6503);
+        byte[] buffer = new byte[count * TrackCodec.MAX_RECORD_BYTES];
+        int position = 0;
+        long lastTime = baseTime;
+        int lastLatitude = baseLatitude;
+        int lastLongitude = baseLongitude;
+        for (int i = 0; i < count; i++) {
+            position = TrackCodec.encode(buffer, position, times[i] - lastTime,
+                    latitudes[i] - lastLatitude, longitudes[i] - lastLongitude, accuracies[i]);
+            lastTime = times[i];
+            lastLatitude = latitudes[i];
+            lastLongitude = longitudes[i];
+        }
+
+        TrackCodec.Cursor cursor = new TrackCodec.Cursor();
+        cursor.reset(ByteBuffer.wrap(buffer), 0, position, baseTime, baseLatitude, baseLongitude);
+        for (int i = 0; i < count; i++) {
+            assertTrue(cursor.next());
+            assertEquals(times[i], cursor.time);
+            assertEquals(latitudes[i], cursor.latitudeE7);
+            assertEquals(longitudes[i], cursor.longitudeE7);
+            assertEquals(accuracies[i], cursor.accuracy);
+        }
+        assertFalse(cursor.next());
+        assertEquals(position, cursor.getPosition());
+    }
+
+    @Test
+    public void extremeRecordFitsMaxRecordBytes() {
+        byte[] buffer = new byte[TrackCodec.MAX_RECORD_BYTES];
+        int end = TrackCodec.encode(buffer, 0, Long.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE,
+                Float.MAX_VALUE);
+        assertTrue(end <= TrackCodec.MAX_RECORD_BYTES);
+
+        TrackCodec.Cursor cursor = new TrackCodec.Cursor();
+        cursor.reset(ByteBuffer.wrap(buffer), 0, end, 0, 0, 0);
+        assertTrue(cursor.next());
+        assertEquals(Long.MIN_VALUE, cursor.time);
+        assertEquals(Integer.MIN_VALUE, cursor.latitudeE7);
+        assertEquals(Integer.MAX_VALUE, cursor.longitudeE7);
+        assertEquals(Integer.MAX_VALUE, cursor.accuracy);
+    }
+
+    @Test
+    public void accuracyIsRoundedAndNeverNegative() {
+        byte[] buffer = new byte[2 * TrackCodec.MAX_RECORD_BYTES];
+        int position = TrackCodec.encode(buffer, 0, 1000, 0, 0, 12.6f);
+        position = TrackCodec.encode(buffer, position, 1000, 0, 0, -3f);
+
+        TrackCodec.Cursor cursor = new TrackCodec.Cursor();
+        cursor.reset(ByteBuffer.wrap(buffer), 0, position, 0, 0, 0);
+        assertTrue(cursor.next());
+        assertEquals(13, cursor.accuracy);
+        assertTrue(cursor.next());
+        assertEquals(0, cursor.accuracy);
+        assertEquals(2000, cursor.time);
+    }
+
+    @Test
+    public void walkingFixTakesFewBytes() {
+        byte[] buffer = new byte[TrackCodec.MAX_RECORD_BYTES];
+        // 5 s later, ~7 m north-east, 8 m accuracy
+        int end = TrackCodec.encode(buffer, 0, 5000, 450, 640, 8f);
+        assertTrue("took " + end + " bytes", end <= 8);
+    }
+}
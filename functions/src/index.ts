@@ -111,3 +111,428 @@ export const sendAlarm = functions.https.onCall(async (data, context) => {
     );
   }
 });
+
+// Presence fields copied into viewers' circle documents; the map needs nothing else
+const CIRCLE_FIELDS = [
+  'name',
+  'lastLocation',
+  'lastSeen',
+  'lastFixTime',
+  'lastSpeed',
+  'lastBearing',
+  'avatarUrl',
+  'avatarVersion'
+];
+// Fields whose change is always fanned out, even inside the throttle interval
+const CIRCLE_IDENTITY_FIELDS = ['name', 'avatarUrl', 'avatarVersion'];
+// A position update this soon after the last fan-out is skipped...
+const FANOUT_MIN_INTERVAL_MS = 30 * 1000;
+// ...unless the user moved at least this far since
+const FANOUT_MIN_DISTANCE_METERS = 100;
+// Writes per batch, under Firestore's limit of 500
+const FANOUT_BATCH_SIZE = 400;
+// Documents per getAll() call when rebuilding a circle
+const REBUILD_READ_CHUNK = 100;
+// Pending users fanned out at once by flushThrottledPresence
+const FLUSH_CONCURRENCY = 20;
+// Members of a circle are spread over this many circles/{viewerId}/shards documents, so the
+// updates of a large circle do not all land on one document (about one sustained write a
+// second per document)
+const CIRCLE_SHARDS = 16;
+// Layout written by rebuildCircle; circles from an older layout are rebuilt by the app
+const CIRCLE_VERSION = 2;
+
+type Presence = { [field: string]: unknown };
+
+/**
+ * Picks the circle fields out of a user document.
+ */
+function projectPresence(data: admin.firestore.DocumentData | undefined): Presence {
+  const presence: Presence = {};
+  if (data) {
+    for (const field of CIRCLE_FIELDS) {
+      if (data[field] !== undefined) {
+        presence[field] = data[field];
+      }
+    }
+  }
+  return presence;
+}
+
+function sameValue(a: unknown, b: unknown): boolean {
+  if (a instanceof admin.firestore.GeoPoint || a instanceof admin.firestore.Timestamp) {
+    return a.isEqual(b as any);
+  }
+  return a === b;
+}
+
+function sameFields(a: Presence, b: Presence, fields: string[]): boolean {
+  return fields.every((field) => sameValue(a[field], b[field]));
+}
+
+function distanceMeters(a: admin.firestore.GeoPoint, b: admin.firestore.GeoPoint): number {
+  const toRadians = (degrees: number) => degrees * Math.PI / 180;
+  const dLat = toRadians(b.latitude - a.latitude);
+  const dLon = toRadians(b.longitude - a.longitude);
+  const h = Math.sin(dLat / 2) ** 2 +
+    Math.cos(toRadians(a.latitude)) * Math.cos(toRadians(b.latitude)) * Math.sin(dLon / 2) ** 2;
+  return 2 * 6371000 * Math.asin(Math.sqrt(h));
+}
+
+function isActiveContact(snapshot: admin.firestore.DocumentSnapshot): boolean {
+  return snapshot.exists && snapshot.get('deleted') !== true;
+}
+
+/**
+ * The contact's user ID, by the same rule as the app's TrustedContact.from. Documents from
+ * before uid was always written get it backfilled, since the fan-out queries uid alone.
+ */
+function contactUid(snapshot: admin.firestore.DocumentSnapshot): string {
+  return snapshot.get('uid') || snapshot.get('userId') || snapshot.id;
+}
+
+/**
+ * Shard document of circles/{viewerId}/shards that holds a member's entry.
+ */
+function circleShard(userId: string): string {
+  let hash = 0;
+  for (let i = 0; i < userId.length; i++) {
+    hash = (hash * 31 + userId.charCodeAt(i)) | 0;
+  }
+  return String(Math.abs(hash) % CIRCLE_SHARDS);
+}
+
+/**
+ * Writes (or, with a null presence, removes) one member's entry in each viewer's circle.
+ * mergeFields replaces the whole entry, so fields the user cleared do not linger.
+ */
+async function writeCircleEntries(viewerIds: string[], userId: string,
+                                  presence: Presence | null): Promise<void> {
+  const db = admin.firestore();
+  const entryPath = new admin.firestore.FieldPath('members', userId);
+  const shard = circleShard(userId);
+  for (let start = 0; start < viewerIds.length; start += FANOUT_BATCH_SIZE) {
+    const batch = db.batch();
+    for (const viewerId of viewerIds.slice(start, start + FANOUT_BATCH_SIZE)) {
+      const circleRef = db.collection('circles').doc(viewerId).collection('shards').doc(shard);
+      if (presence) {
+        batch.set(circleRef, { members: { [userId]: presence } }, { mergeFields: [entryPath] });
+      } else {
+        batch.set(circleRef, { members: { [userId]: admin.firestore.FieldValue.delete() } }, { merge: true });
+      }
+    }
+    await batch.commit();
+  }
+}
+
+/**
+ * Writes a user's presence (or its removal) to the circle of every user who has them as an
+ * active trusted contact, and records it as the last fan-out for the throttle.
+ * @returns {Promise<number>} The number of circles written
+ */
+async function fanOut(userId: string, presence: Presence | null): Promise<number> {
+  const db = admin.firestore();
+  const contactOf = await db.collectionGroup('trustedContacts').where('uid', '==', userId).get();
+  const viewerIds = new Set<string>();
+  contactOf.forEach((doc) => {
+    const viewerRef = doc.ref.parent.parent;
+    if (viewerRef && isActiveContact(doc)) {
+      viewerIds.add(viewerRef.id);
+    }
+  });
+
+  await writeCircleEntries([...viewerIds], userId, presence);
+  const throttleRef = db.collection('presenceFanout').doc(userId);
+  if (presence) {
+    await throttleRef.set({ at: Date.now(), lastLocation: presence.lastLocation ?? null, pending: false });
+  } else {
+    await throttleRef.delete();
+  }
+  return viewerIds.size;
+}
+
+/**
+ * Copies a user's presence into their viewers' circles, so each viewer's map reads one small
+ * set of shard documents instead of one document per contact. Viewers are found with a
+ * collection-group query on trustedContacts.uid. Position-only updates are throttled per
+ * user; a skipped update is marked pending and sent by flushThrottledPresence, so the last
+ * position always goes out. Name and avatar changes go out at once.
+ */
+export const fanOutPresence = functions.firestore
+  .document('users/{userId}')
+  .onWrite(async (change, context) => {
+    const userId: string = context.params.userId;
+    const before = projectPresence(change.before.data());
+    const after = change.after.exists ? projectPresence(change.after.data()) : null;
+
+    if (after && sameFields(before, after, CIRCLE_FIELDS)) {
+      return null; // e.g. an FCM token refresh
+    }
+
+    if (after && change.before.exists && sameFields(before, after, CIRCLE_IDENTITY_FIELDS)) {
+      const throttleRef = admin.firestore().collection('presenceFanout').doc(userId);
+      const last = await throttleRef.get();
+      const lastAt: number | undefined = last.get('at');
+      const lastLocation = last.get('lastLocation');
+      const location = after.lastLocation;
+      const moved = lastLocation instanceof admin.firestore.GeoPoint &&
+        location instanceof admin.firestore.GeoPoint
+        ? distanceMeters(lastLocation, location)
+        : Infinity;
+      if (lastAt !== undefined && Date.now() - lastAt < FANOUT_MIN_INTERVAL_MS &&
+        moved < FANOUT_MIN_DISTANCE_METERS) {
+        if (last.get('pending') !== true) {
+          await throttleRef.set({ pending: true }, { merge: true });
+        }
+        return null;
+      }
+    }
+
+    const circles = await fanOut(userId, after);
+    console.log(`Fanned out presence of ${userId} to ${circles} circles`);
+    return null;
+  });
+
+/**
+ * Trailing edge of the fan-out throttle: sends the current presence of every user with an
+ * update skipped since their last fan-out. Users are flushed FLUSH_CONCURRENCY at a time so
+ * a long backlog finishes well within the one-minute schedule; one failing user is logged
+ * and left pending for the next run.
+ */
+export const flushThrottledPresence = functions.pubsub
+  .schedule('every 1 minutes')
+  .onRun(async () => {
+    const db = admin.firestore();
+    const pending = await db.collection('presenceFanout').where('pending', '==', true).get();
+    let failed = 0;
+    for (let start = 0; start < pending.docs.length; start += FLUSH_CONCURRENCY) {
+      await Promise.all(pending.docs.slice(start, start + FLUSH_CONCURRENCY).map(async (doc) => {
+        try {
+          const user = await db.collection('users').doc(doc.id).get();
+          await fanOut(doc.id, user.exists ? projectPresence(user.data()) : null);
+        } catch (error) {
+          failed++;
+          console.error(`Error flushing presence of ${doc.id}:`, error);
+        }
+      }));
+    }
+    console.log(`Flushed ${pending.size - failed} of ${pending.size} throttled presence updates`);
+    return null;
+  });
+
+/**
+ * Keeps circles/{viewerId} membership in step with the viewer's trustedContacts: adding a
+ * contact copies their current presence in, removing one (or leaving a tombstone) drops it.
+ */
+export const syncCircleMembership = functions.firestore
+  .document('users/{viewerId}/trustedContacts/{contactId}')
+  .onWrite(async (change, context) => {
+    const viewerId: string = context.params.viewerId;
+    if (isActiveContact(change.after) && !change.after.get('uid')) {
+      // Written by an older client; the rewrite triggers this function again with uid set
+      await change.after.ref.update({ uid: contactUid(change.after) });
+      return null;
+    }
+    const wasActive = isActiveContact(change.before);
+    const isActive = isActiveContact(change.after);
+    const beforeUid = wasActive ? contactUid(change.before) : null;
+    const afterUid = isActive ? contactUid(change.after) : null;
+    if (beforeUid === afterUid) {
+      return null;
+    }
+
+    if (beforeUid) {
+      await writeCircleEntries([viewerId], beforeUid, null);
+    }
+    if (afterUid) {
+      const userDoc = await admin.firestore().collection('users').doc(afterUid).get();
+      await writeCircleEntries([viewerId], afterUid, projectPresence(userDoc.data()));
+    }
+    return null;
+  });
+
+/**
+ * Builds the caller's circle from scratch: every shard document with its active trusted
+ * contacts, then complete: true and the layout version on circles/{viewerId} so the app
+ * stops asking. Used for circles that predate the fan-out or the current layout. Contacts
+ * without a uid field get it backfilled, so the fan-out finds them from now on.
+ * @returns {Promise<{success: boolean, members: number}>}
+ */
+export const rebuildCircle = functions.https.onCall(async (data, context) => {
+  try {
+    if (!context.auth) {
+      throw new functions.https.HttpsError(
+        'unauthenticated',
+        'The function must be called while authenticated'
+      );
+    }
+
+    const viewerId = context.auth.uid;
+    const db = admin.firestore();
+    const contacts = await db.collection('users').doc(viewerId).collection('trustedContacts').get();
+    const contactIds = new Set<string>();
+    const missingUid: admin.firestore.QueryDocumentSnapshot[] = [];
+    contacts.forEach((doc) => {
+      if (isActiveContact(doc)) {
+        contactIds.add(contactUid(doc));
+        if (!doc.get('uid')) {
+          missingUid.push(doc);
+        }
+      }
+    });
+    for (let start = 0; start < missingUid.length; start += FANOUT_BATCH_SIZE) {
+      const backfill = db.batch();
+      for (const doc of missingUid.slice(start, start + FANOUT_BATCH_SIZE)) {
+        backfill.update(doc.ref, { uid: contactUid(doc) });
+      }
+      await backfill.commit();
+    }
+
+    const shards: { [userId: string]: Presence }[] = [];
+    for (let shard = 0; shard < CIRCLE_SHARDS; shard++) {
+      shards.push({});
+    }
+    const refs = [...contactIds].map((id) => db.collection('users').doc(id));
+    for (let start = 0; start < refs.length; start += REBUILD_READ_CHUNK) {
+      const users = await db.getAll(...refs.slice(start, start + REBUILD_READ_CHUNK));
+      for (const user of users) {
+        shards[Number(circleShard(user.id))][user.id] = projectPresence(user.data());
+      }
+    }
+
+    // Every shard is replaced, so members removed since the last build do not linger
+    const circleRef = db.collection('circles').doc(viewerId);
+    const batch = db.batch();
+    shards.forEach((members, shard) => {
+      batch.set(circleRef.collection('shards').doc(String(shard)), { members });
+    });
+    batch.set(circleRef, { complete: true, version: CIRCLE_VERSION });
+    await batch.commit();
+
+    return {
+      success: true,
+      members: contactIds.size
+    };
+
+  } catch (error) {
+    console.error('Error rebuilding circle:', error);
+
+    if (error instanceof functions.https.HttpsError) {
+      throw error;
+    }
+
+    throw new functions.https.HttpsError(
+      'internal',
+      'An error occurred while rebuilding the circle',
+      error
+    );
+  }
+});
+
+// Codes as produced by InvitationUtils.generateInvitationCode
+const INVITATION_CODE_PATTERN = /^[A-Z0-9]{8}$/;
+
+/**
+ * Redeems an invitation code: looks up invitationCodes/{code} directly by ID, checks it has
+ * not expired and is not the caller's own, adds the owner and the caller to each other's
+ * trustedContacts and deletes the code, all in one transaction so a code is used once even
+ * under concurrent redemptions. Expired codes are also removed by the TTL policy on expiresAt.
+ * @param {string} code - The invitation code
+ * @returns {Promise<{success: boolean, contactUid: string, contactName: string}>}
+ */
+export const redeemInvitation = functions.https.onCall(async (data, context) => {
+  try {
+    if (!context.auth) {
+      throw new functions.https.HttpsError(
+        'unauthenticated',
+        'The function must be called while authenticated'
+      );
+    }
+
+    const code = typeof data?.code === 'string' ? data.code.trim().toUpperCase() : '';
+    if (!INVITATION_CODE_PATTERN.test(code)) {
+      throw new functions.https.HttpsError(
+        'invalid-argument',
+        'A valid 8-character invitation code is required'
+      );
+    }
+
+    const redeemerId = context.auth.uid;
+    const db = admin.firestore();
+    const codeRef = db.collection('invitationCodes').doc(code);
+
+    const contact = await db.runTransaction(async (transaction) => {
+      const invitation = await transaction.get(codeRef);
+      if (!invitation.exists) {
+        throw new functions.https.HttpsError(
+          'not-found',
+          'Invitation code not found or already used'
+        );
+      }
+
+      const expiresAt = invitation.get('expiresAt');
+      if (expiresAt instanceof admin.firestore.Timestamp && expiresAt.toMillis() <= Date.now()) {
+        throw new functions.https.HttpsError(
+          'failed-precondition',
+          'Invitation code has expired'
+        );
+      }
+
+      const ownerId: string = invitation.get('ownerId');
+      if (ownerId === redeemerId) {
+        throw new functions.https.HttpsError(
+          'invalid-argument',
+          'You cannot redeem your own invitation code'
+        );
+      }
+
+      const ownerRef = db.collection('users').doc(ownerId);
+      const redeemerRef = db.collection('users').doc(redeemerId);
+      const [owner, redeemer] = await transaction.getAll(ownerRef, redeemerRef);
+      const ownerName: string = owner.get('name') || 'Unknown';
+      const redeemerName: string = redeemer.get('name') || 'Unknown';
+
+      // Same fields as InvitationUtils.addTrustedContact, including the sync timestamp
+      const addedAt = Date.now();
+      const updatedAt = admin.firestore.FieldValue.serverTimestamp();
+      transaction.set(redeemerRef.collection('trustedContacts').doc(ownerId), {
+        uid: ownerId,
+        name: ownerName,
+        addedAt,
+        updatedAt,
+        deleted: false
+      });
+      transaction.set(ownerRef.collection('trustedContacts').doc(redeemerId), {
+        uid: redeemerId,
+        name: redeemerName,
+        addedAt,
+        updatedAt,
+        deleted: false
+      });
+      transaction.delete(codeRef);
+
+      return { contactUid: ownerId, contactName: ownerName };
+    });
+
+    console.log(`Invitation ${code} redeemed by ${redeemerId}`);
+
+    return {
+      success: true,
+      contactUid: contact.contactUid,
+      contactName: contact.contactName
+    };
+
+  } catch (error) {
+    console.error('Error redeeming invitation:', error);
+
+    if (error instanceof functions.https.HttpsError) {
+      throw error;
+    }
+
+    throw new functions.https.HttpsError(
+      'internal',
+      'An error occurred while redeeming the invitation',
+      error
+    );
+  }
+});